@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the game into out/blocks.jar and creates an AppCDS archive (out/blocks.jsa)
+# from a training run that exits once the menu was drawn with the preloaded font and images
+# and the texture packs are baked, so the archive has every class the startup needs.
+# Needs a display, since the training run opens the game window.
+# The classes have to come from a jar, the JVM doesn't archive classes from directories.
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf out/production
+mkdir -p out/production
+javac -d out/production $(find src -name '*.java')
+jar cfe out/blocks.jar Main -C out/production .
+
+java -XX:ArchiveClassesAtExit=out/blocks.jsa \
+     -Dblocks.exitAfterStartup=true \
+     -cp out/blocks.jar Main
+
+echo "Run with: java -XX:SharedArchiveFile=out/blocks.jsa -cp out/blocks.jar Main"
@@ -1,18 +1,34 @@
 import common.ResourceManager;
+import common.StartupTimer;
 import ui.GameWindow;
 
 import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
 
 public class Main {
     public static void main(String[] args) {
+        StartupTimer.markMainStart();
+
+        // Load the font and the menu images on background threads, so the window
+        // doesn't have to wait for them before showing up. Anything that is still
+        // loading is simply painted on the next repaint.
+        GameWindow[] window = new GameWindow[1];
+        CompletableFuture<Void> preload = ResourceManager.preload("Monocraft");
+        preload.thenRun(() -> SwingUtilities.invokeLater(() -> {
+            if (window[0] != null) window[0].onResourcesLoaded();
+        }));
+
+        // The menu doesn't show any block textures, so the pack is only scanned once the menu
+        // is drawn complete (see GameWindow for the baking), instead of competing with it for the CPU
+        StartupTimer.afterFirstCompleteFrame().thenRun(() -> ResourceManager.setTexturePack("default"));
+
         // To ensure that the ui is created on the "Swing UI" Thread, (Which might be
         // different from this one, running main) we use this function. This is also to avoid
         // abnormal issues that can occur with Java's Multi-threaded asynchronicity.
         SwingUtilities.invokeLater(() -> {
-            // Load all the initial resources first.
-            ResourceManager.loadFont("Monocraft");
-            ResourceManager.setTexturePack("default");
-            new GameWindow();
+            window[0] = new GameWindow();
+            // In case it finished before the window existed
+            if (preload.isDone()) window[0].onResourcesLoaded();
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,363 @@
+package common;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps the last 30 seconds of gameplay, so it can be saved as an animated GIF
+ * (for bug reports and highlights) without screen recording. <br>
+ * The game thread renders frames into images borrowed from a small pool (acquireFrame)
+ * and hands them back with submitFrame, which never blocks: if the encoder falls behind
+ * the pool runs dry and frames are skipped. <br>
+ * A background thread turns every frame into a delta against the previous one (only the
+ * rectangle of pixels that changed, in a fixed 252 color palette) and keeps a rolling
+ * buffer of deltas on top of a "base" frame. Deltas that fall out of the 30 seconds
+ * are applied to the base, so memory stays bounded, and saving writes the base
+ * followed by every delta. <br>
+ * Only GIF is supported, the JDK doesn't ship an APNG writer.
+ * */
+public class ClipRecorder {
+    public static final int FRAMES_PER_SECOND = 20;
+    public static final int CLIP_SECONDS = 30;
+
+    private static final int POOL_SIZE = 4;
+    private static final int MAX_NAME_ATTEMPTS = 100;
+    private static final long MAX_BUFFERED_BYTES = 48L << 20; // For very busy clips, drops the oldest part early
+    private static final int GIF_DELAY = 100 / FRAMES_PER_SECOND; // GIF delays are in 1/100th of a second
+
+    // A uniform palette with 6 levels of red and blue and 7 of green (the eye is the most sensitive to it).
+    // Not pretty, but every frame maps to it the same way, which keeps the deltas small.
+    private static final IndexColorModel PALETTE;
+    private static final int[] RED_INDEX = new int[256];
+    private static final int[] GREEN_INDEX = new int[256];
+    private static final int[] BLUE_INDEX = new int[256];
+
+    static {
+        byte[] reds = new byte[252], greens = new byte[252], blues = new byte[252];
+        for (int r = 0; r < 6; r++)
+            for (int g = 0; g < 7; g++)
+                for (int b = 0; b < 6; b++) {
+                    int index = r * 42 + g * 6 + b;
+                    reds[index] = (byte) (r * 255 / 5);
+                    greens[index] = (byte) (g * 255 / 6);
+                    blues[index] = (byte) (b * 255 / 5);
+                }
+        PALETTE = new IndexColorModel(8, 252, reds, greens, blues);
+
+        for (int value = 0; value < 256; value++) {
+            RED_INDEX[value] = (value * 6 >> 8) * 42;
+            GREEN_INDEX[value] = (value * 7 >> 8) * 6;
+            BLUE_INDEX[value] = value * 6 >> 8;
+        }
+    }
+
+    /** The pixels of the part of a frame that changed, in palette indices */
+    private static class Delta {
+        final int x, y, width, height;
+        final byte[] pixels;
+        int frames = 1; // How long it stays on screen, grows while nothing changes
+
+        Delta(int x, int y, int width, int height, byte[] pixels) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    // What the game thread hands to the encoder thread. `repeats` is how many more frames the
+    // previous frame stays on screen before this one, so unchanged frames never take a queue slot.
+    private record Frame(BufferedImage image, int repeats) { }
+    private record SaveRequest(File file, Runnable onSaved, int repeats) { }
+
+    public final int width;
+    public final int height;
+
+    private final BlockingQueue<BufferedImage> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(POOL_SIZE * 2);
+    private final Thread encoder;
+    private int pendingRepeats; // Only used by the game thread
+
+    // Only used by the encoder thread
+    private byte[] previous; // The latest frame, in palette indices
+    private byte[] current;
+    private byte[] base; // The oldest frame still in the buffer
+    private int baseFrames;
+    private final ArrayDeque<Delta> deltas = new ArrayDeque<>();
+    private int bufferedFrames;
+    private long bufferedBytes;
+
+    public ClipRecorder(int width, int height) {
+        this.width = width;
+        this.height = height;
+        for (int index = 0; index < POOL_SIZE; index++)
+            pool.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+
+        encoder = new Thread(this::encodeLoop, "clip-encoder");
+        encoder.setDaemon(true);
+        encoder.start();
+    }
+
+    /** An image to render the next frame into, or null if the encoder is behind and this frame should be skipped */
+    public BufferedImage acquireFrame() {
+        return pool.poll();
+    }
+
+    /** Hands a frame from acquireFrame to the encoder */
+    public void submitFrame(BufferedImage frame) {
+        if (queue.offer(new Frame(frame, pendingRepeats))) {
+            pendingRepeats = 0;
+        } else {
+            pool.offer(frame);
+            pendingRepeats++;
+        }
+    }
+
+    /** Same as submitting the exact same frame again, without rendering it */
+    public void repeatFrame() {
+        pendingRepeats++;
+    }
+
+    /** Writes the buffered clip to that file in the background, onSaved is called from the encoder thread */
+    public void saveClip(File file, Runnable onSaved) {
+        if (queue.offer(new SaveRequest(file, onSaved, pendingRepeats)))
+            pendingRepeats = 0;
+        else
+            System.err.println("Clip encoder is busy, couldn't save " + file);
+    }
+
+    /** Stops the encoder thread, the buffered clip is lost */
+    public void close() {
+        encoder.interrupt();
+    }
+
+    private void encodeLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Object job = queue.take();
+                if (job instanceof Frame frame) {
+                    repeatLastFrame(frame.repeats);
+                    addFrame(frame.image);
+                } else if (job instanceof SaveRequest request) {
+                    repeatLastFrame(request.repeats);
+                    save(request);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void addFrame(BufferedImage frame) {
+        if (current == null) current = new byte[width * height];
+        int[] rgb = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        for (int pixel = 0; pixel < rgb.length; pixel++) {
+            int color = rgb[pixel];
+            current[pixel] = (byte) (RED_INDEX[color >> 16 & 0xFF] + GREEN_INDEX[color >> 8 & 0xFF] + BLUE_INDEX[color & 0xFF]);
+        }
+        pool.offer(frame); // Everything needed was copied out
+
+        if (previous == null) {
+            base = current.clone();
+            baseFrames = 1;
+            bufferedFrames = 1;
+            swapBuffers();
+            return;
+        }
+
+        // Bounding box of the pixels that changed
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width;
+            int x = 0;
+            while (x < width && current[rowStart + x] == previous[rowStart + x]) x++;
+            if (x == width) continue;
+
+            int lastX = width - 1;
+            while (current[rowStart + lastX] == previous[rowStart + lastX]) lastX--;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, lastX);
+            minY = Math.min(minY, y);
+            maxY = y;
+        }
+
+        if (maxX < 0) {
+            repeatLastFrame(1);
+            return;
+        }
+
+        int deltaWidth = maxX - minX + 1, deltaHeight = maxY - minY + 1;
+        byte[] pixels = new byte[deltaWidth * deltaHeight];
+        for (int y = 0; y < deltaHeight; y++)
+            System.arraycopy(current, (minY + y) * width + minX, pixels, y * deltaWidth, deltaWidth);
+
+        deltas.addLast(new Delta(minX, minY, deltaWidth, deltaHeight, pixels));
+        bufferedFrames++;
+        bufferedBytes += pixels.length;
+        swapBuffers();
+        trim();
+    }
+
+    private void repeatLastFrame(int frames) {
+        if (previous == null || frames == 0) return;
+        if (deltas.isEmpty()) baseFrames += frames;
+        else deltas.peekLast().frames += frames;
+        bufferedFrames += frames;
+        trim();
+    }
+
+    private void swapBuffers() {
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+    }
+
+    /**
+     * Brings the buffer back to the last 30 seconds (and the memory limit): the oldest frame is
+     * shown for a shorter time, or if that isn't enough, the oldest delta is folded into it.
+     * */
+    private void trim() {
+        int limit = FRAMES_PER_SECOND * CLIP_SECONDS;
+        while (true) {
+            int excess = bufferedFrames - limit;
+            if (excess <= 0 && bufferedBytes <= MAX_BUFFERED_BYTES) return;
+
+            if (deltas.isEmpty() || (bufferedBytes <= MAX_BUFFERED_BYTES && excess < baseFrames)) {
+                int cut = Math.min(Math.max(excess, 0), baseFrames - 1);
+                baseFrames -= cut;
+                bufferedFrames -= cut;
+                return;
+            }
+
+            Delta oldest = deltas.removeFirst();
+            for (int y = 0; y < oldest.height; y++)
+                System.arraycopy(oldest.pixels, y * oldest.width, base, (oldest.y + y) * width + oldest.x, oldest.width);
+
+            bufferedFrames -= baseFrames;
+            bufferedBytes -= oldest.pixels.length;
+            baseFrames = oldest.frames;
+        }
+    }
+
+    private void save(SaveRequest request) {
+        if (base == null) return;
+
+        File folder = request.file.getAbsoluteFile().getParentFile();
+        if (folder != null) folder.mkdirs();
+
+        // createImageOutputStream writes into the file without truncating it, so it has to be a new,
+        // empty one: a shorter clip saved over a longer one would keep the longer one's tail
+        File file;
+        try {
+            file = createNewFile(request.file);
+        } catch (IOException e) {
+            System.err.println("Failed to save clip: " + request.file);
+            e.printStackTrace();
+            return;
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.prepareWriteSequence(null);
+
+            writeFrame(writer, indexedImage(base, width, height), 0, 0, baseFrames, true);
+            for (Delta delta : deltas)
+                writeFrame(writer, indexedImage(delta.pixels, delta.width, delta.height),
+                           delta.x, delta.y, delta.frames, false);
+
+            writer.endWriteSequence();
+            if (request.onSaved != null) request.onSaved.run();
+
+        } catch (IOException e) {
+            System.err.println("Failed to save clip: " + file);
+            e.printStackTrace();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /** Creates the file, or `<name>-1.gif`, `<name>-2.gif`... if it already exists, clips are never overwritten */
+    private static File createNewFile(File file) throws IOException {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        for (int attempt = 1; ; attempt++) {
+            if (file.createNewFile()) return file;
+            if (attempt == MAX_NAME_ATTEMPTS) throw new FileAlreadyExistsException(file.toString());
+            file = new File(file.getParentFile(), name.substring(0, extension) + "-" + attempt + name.substring(extension));
+        }
+    }
+
+    private static BufferedImage indexedImage(byte[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, PALETTE);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, data, 0, data.length);
+        return image;
+    }
+
+    /**
+     * Writes one GIF frame at that position, shown for that many frames.
+     * Frames are drawn on top of the previous ones (doNotDispose), which is what makes deltas work.
+     * */
+    private static void writeFrame(ImageWriter writer, BufferedImage image, int x, int y, int frames,
+                                   boolean first) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+        IIOMetadataNode descriptor = child(root, "ImageDescriptor");
+        descriptor.setAttribute("imageLeftPosition", Integer.toString(x));
+        descriptor.setAttribute("imageTopPosition", Integer.toString(y));
+        descriptor.setAttribute("imageWidth", Integer.toString(image.getWidth()));
+        descriptor.setAttribute("imageHeight", Integer.toString(image.getHeight()));
+        descriptor.setAttribute("interlaceFlag", "FALSE");
+
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "doNotDispose");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("transparentColorIndex", "0");
+        control.setAttribute("delayTime", Integer.toString(frames * GIF_DELAY));
+
+        if (first) {
+            // Loop forever
+            IIOMetadataNode extensions = child(root, "ApplicationExtensions");
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[] { 1, 0, 0 });
+            extensions.appendChild(loop);
+        }
+
+        metadata.setFromTree(format, root);
+        writer.writeToSequence(new IIOImage(image, null, metadata), null);
+    }
+
+    /** The child node with that name, added if there isn't one yet */
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+            if (node.getNodeName().equals(name)) return (IIOMetadataNode) node;
+
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        parent.appendChild(node);
+        return node;
+    }
+}
@@ -1,6 +1,8 @@
 package common;
 
 import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Wraps around Graphics2D and provides common tools for rendering.
@@ -13,21 +15,51 @@ public class GraphicsUtils {
     public final Font SUB_HEADER_FONT;
     public final Font HEADER_FONT;
     public final Font PLAIN_FONT;
+    public final Font SIDE_PANEL_FONT;
+
+    // Creating fonts is not free, so the fonts of each guiScale are only created once.
+    // Only the most recent scales are kept, since resizing the window goes through a lot of them.
+    private static final Map<Double, Font[]> fontCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Double, Font[]> eldest) {
+            return size() > 8;
+        }
+    };
 
     private final Graphics2D graphics;
     private final int screenHeight;
     private final int screenWidth;
 
     public GraphicsUtils(Graphics2D g, int screenWidth, int screenHeight, double guiScale) {
-        SUB_HEADER_FONT = new Font("Monocraft", Font.PLAIN, (int) (15 * guiScale));
-        HEADER_FONT = new Font("Monocraft", Font.BOLD, (int) (50 * guiScale));
-        PLAIN_FONT = new Font("Monocraft", Font.BOLD, (int) (15 * guiScale));
+        Font[] fonts = getFonts(guiScale);
+        SUB_HEADER_FONT = fonts[0];
+        HEADER_FONT = fonts[1];
+        PLAIN_FONT = fonts[2];
+        SIDE_PANEL_FONT = fonts[3];
 
         this.screenHeight = screenHeight;
         this.screenWidth = screenWidth;
         this.graphics = g;
     }
 
+    /** Only called from the Swing UI Thread, like every paint */
+    private static Font[] getFonts(double guiScale) {
+        return fontCache.computeIfAbsent(guiScale, scale -> new Font[] {
+            new Font("Monocraft", Font.PLAIN, (int) (15 * scale)), // Sub Header
+            new Font("Monocraft", Font.BOLD, (int) (50 * scale)), // Header
+            new Font("Monocraft", Font.BOLD, (int) (15 * scale)), // Plain
+            new Font("Monocraft", Font.PLAIN, (int) (10 * scale)) // Side Panel
+        });
+    }
+
+    /**
+     * Fonts created before the font finished preloading use the fallback font,
+     * so the cache needs to be cleared once it is loaded.
+     * */
+    public static void clearFontCache() {
+        fontCache.clear();
+    }
+
     // Basically Just Almost Self-Contained Code Snippets.
 
     /** Fills the entire screen with the BG_COLOR */
@@ -4,6 +4,14 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A static methods class that loads the images and other files required.
@@ -12,45 +20,190 @@ import java.io.*;
 public class ResourceManager {
     private static final String baseDir = "res/"; // Base Resource Files Directory (Prefix)
     private static final String highestScoreFile = baseDir + "highest-score";
-    private static String texturePack;
+    private static final String statsLogFile = baseDir + "stats-log"; // One line per finished game
+    private static volatile String texturePack;
+
+    // Every image is only ever decoded once, after that it is served from here.
+    // Keys are the filenames relative to baseDir, so "enter-key.png" or "icon.png"
+    private static final Map<String, BufferedImage> imageCache = new ConcurrentHashMap<>();
+    // Images being decoded in the background, so asking again before it is done doesn't decode it twice
+    private static final Map<String, CompletableFuture<BufferedImage>> imageLoads = new ConcurrentHashMap<>();
+    // Every texture pack used so far, by folder name
+    private static final Map<String, TexturePack> texturePacks = new ConcurrentHashMap<>();
+    private static final List<Runnable> textureListeners = new CopyOnWriteArrayList<>();
+    private static TextureWatcher textureWatcher;
+
+    // Background threads used for preloading, daemon so they never keep the app alive.
+    private static final ExecutorService loader = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()),
+        runnable -> {
+            Thread thread = new Thread(runnable, "resource-loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    // The score files are written on one thread, so writes (and reads) happen in the order they were asked for.
+    // Daemon as well, but a shutdown hook (see below) lets it finish what is queued when the window is closed.
+    private static final ExecutorService scoreWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "score-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final long WRITER_SHUTDOWN_MILLIS = 2000;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scoreWriter.shutdown();
+            try {
+                scoreWriter.awaitTermination(WRITER_SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Exiting anyway
+            }
+        }, "score-writer-shutdown"));
+    }
+
+    // Files required before the first game frame, preloaded by `preload`
+    private static final String[] uiImages = { "icon.png", "enter-key.png" };
+
+    /**
+     * Starts loading the font and the ui images on background threads and returns immediately,
+     * so the window can be shown while this is still running. The returned future completes
+     * once everything is in the cache. Nothing before a game needs the texture packs, they are
+     * scanned and baked separately (see setTexturePack and prepareTexturePacks). <br>
+     * With a single core there is nothing to overlap the loading with, the window would only
+     * compete with it and paint twice, so then it's loaded right away on the calling thread.
+     * */
+    public static CompletableFuture<Void> preload(String fontName) {
+        if (Runtime.getRuntime().availableProcessors() == 1) {
+            loadFont(fontName);
+            for (String image : uiImages) loadImage(image);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[1 + uiImages.length];
+        int taskIndex = 0;
+
+        tasks[taskIndex++] = CompletableFuture.runAsync(() -> loadFont(fontName), loader);
+        for (String image : uiImages)
+            tasks[taskIndex++] = loadImageAsync(image);
+
+        return CompletableFuture.allOf(tasks);
+    }
+
+    /** Decodes an image on a background thread (or returns the cached one) */
+    public static CompletableFuture<BufferedImage> loadImageAsync(String filename) {
+        BufferedImage cached = imageCache.get(filename);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        return imageLoads.computeIfAbsent(filename, name -> CompletableFuture.supplyAsync(() -> loadImage(name), loader));
+    }
 
     /**
      * `Texture pack` refers to the folder location within
      * the baseDir of the 20px by 20px texture blocks used by
-     * PlayAreaPanel
+     * PlayAreaPanel. Switching only swaps a reference, so if the pack
+     * was prepared (see prepareTexturePacks) it shows up on the next frame.
+     * A pack that wasn't is scanned in the background, and shows up once it's ready.
      * */
     public static void setTexturePack(String texturePack) {
         ResourceManager.texturePack = texturePack;
+        notifyTextureListeners();
+        if (!texturePacks.containsKey(texturePack))
+            CompletableFuture.runAsync(() -> getTexturePack(texturePack), loader);
+    }
+
+    public static String getTexturePackName() {
+        return texturePack;
+    }
+
+    /** Names of every texture pack folder within the baseDir */
+    public static List<String> getTexturePackNames() {
+        return TexturePack.listPacks(new File(baseDir));
     }
 
     /**
-     * Like loadImage but automatically prefixes the texture pack
-     * directory and suffixes the image file extension (.png)
+     * Bakes every available texture pack at that block size on background threads,
+     * so switching packs or starting a game never has to wait for the textures.
      * */
-    public static BufferedImage loadBlockTexture(String block, int blockSize) {
-        // Create a higher scale of the imported image
-        BufferedImage originalImage = loadImage(texturePack + "/" + block + ".png");
-        BufferedImage newImage = new BufferedImage(
-            blockSize, blockSize, BufferedImage.TYPE_4BYTE_ABGR
-        );
+    public static CompletableFuture<Void> prepareTexturePacks(int blockSize) {
+        return CompletableFuture.supplyAsync(ResourceManager::getTexturePackNames, loader).thenCompose(packs -> {
+            CompletableFuture<?>[] tasks = new CompletableFuture<?>[packs.size()];
+            for (int packIndex = 0; packIndex < packs.size(); packIndex++) {
+                String pack = packs.get(packIndex);
+                tasks[packIndex] = CompletableFuture.supplyAsync(() -> getTexturePack(pack), loader)
+                    .thenCompose(texturePack -> texturePack.prepare(blockSize));
+            }
+            return CompletableFuture.allOf(tasks);
+        });
+    }
 
-        Graphics2D g2d = newImage.createGraphics();
-        // https://docs.oracle.com/javase/tutorial/2d/advanced/quality.html
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-        g2d.drawImage(originalImage, 0, 0, blockSize, blockSize, null);
-        g2d.dispose();
+    /**
+     * Listeners are called (from any thread) when the texture pack was
+     * switched, or when its files were edited and got reloaded.
+     * */
+    public static void addTextureListener(Runnable listener) {
+        textureListeners.add(listener);
+    }
 
-        return newImage;
+    private static void notifyTextureListeners() {
+        textureListeners.forEach(Runnable::run);
+    }
+
+    /** Scans the pack folder the first time, so never called on the Swing UI Thread */
+    private static TexturePack getTexturePack(String name) {
+        TexturePack existing = texturePacks.get(name);
+        if (existing != null) return existing;
+
+        TexturePack texturePack = texturePacks.computeIfAbsent(name, packName -> {
+            TexturePack pack = new TexturePack(packName, new File(baseDir), ResourceManager::notifyTextureListeners);
+            watchTexturePack(pack);
+            return pack;
+        });
+        // It might be the current one, which couldn't be drawn until now
+        notifyTextureListeners();
+        return texturePack;
+    }
+
+    private static synchronized void watchTexturePack(TexturePack pack) {
+        try {
+            if (textureWatcher == null)
+                textureWatcher = new TextureWatcher();
+            textureWatcher.watch(pack);
+
+        } catch (IOException e) {
+            // Hot reloading is only a convenience, the pack itself still works
+            System.err.println("Texture hot reloading is unavailable");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the block texture of the current texture pack, scaled to blockSize.
+     * Served from the pack's baked atlas, so this is cheap to call every paint, and never waits
+     * for anything: it is null while the pack is still being scanned, and can be of another size
+     * while the atlas of this one is being baked (see TexturePack.getTile), so draw it at blockSize.
+     * */
+    public static BufferedImage loadBlockTexture(String block, int blockSize) {
+        TexturePack pack = texturePacks.get(texturePack);
+        return pack == null ? null : pack.getTile(block, blockSize);
     }
 
     /**
      * Does Exception handling and baseDir prefixing for
-     * importing images located within the baseDir
+     * importing images located within the baseDir.
+     * Images are cached, so calling this every paint is cheap.
      * */
     public static BufferedImage loadImage(String filename) {
+        BufferedImage cached = imageCache.get(filename);
+        if (cached != null) return cached;
+
         String fullPath = baseDir + filename;
         try {
-            return ImageIO.read(new File(fullPath));
+            BufferedImage image = ImageIO.read(new File(fullPath));
+            if (image != null) imageCache.put(filename, image);
+            return image;
+
         } catch (IOException e) {
             System.err.println("Failed to load image: " + fullPath);
             e.printStackTrace();
@@ -59,16 +212,13 @@ public class ResourceManager {
     }
 
     /**
-     * Checks your system if you already installed
-     * that font, then registers it for you if it isn't.
+     * Registers the font file with the system. If a font with the same name
+     * is already installed, `registerFont` simply keeps the installed one, so
+     * there is no need to list every installed font family first (which is slow).
      * Do not include the extension (.tff) when specifying `name`
      * */
     public static void loadFont(String name) {
-        // First check whether that font exists
         GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-        for (String fontName : ge.getAvailableFontFamilyNames())
-            if (fontName.equals(name)) return;
-
         String fullPath = baseDir + name + ".ttf";
         try {
             Font font = Font.createFont(Font.TRUETYPE_FONT, new File(fullPath));
@@ -100,14 +250,51 @@ public class ResourceManager {
         }
     }
 
-    /** Saves the highest score under the file location of `res/highest-score` */
-    public static void saveHighestScore(int highestScore) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(highestScoreFile))) {
-            writer.write(Integer.toString(highestScore));
+    /** Saves the highest score under the file location of `res/highest-score`, on a background thread */
+    public static CompletableFuture<Void> saveHighestScoreAsync(int highestScore) {
+        return CompletableFuture.runAsync(() -> {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(highestScoreFile))) {
+                writer.write(Integer.toString(highestScore));
 
-        } catch (IOException e) {
-            System.err.println("Cannot write to file " + highestScoreFile);
-            e.printStackTrace();
-        }
+            } catch (IOException e) {
+                System.err.println("Cannot write to file " + highestScoreFile);
+                e.printStackTrace();
+            }
+        }, scoreWriter);
+    }
+
+    /** Appends a line to the stats log at `res/stats-log` on a background thread, lines are never rewritten */
+    public static CompletableFuture<Void> appendStatsLogAsync(String line) {
+        return CompletableFuture.runAsync(() -> {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(statsLogFile, true))) {
+                writer.write(line);
+                writer.newLine();
+
+            } catch (IOException e) {
+                System.err.println("Cannot write to file " + statsLogFile);
+                e.printStackTrace();
+            }
+        }, scoreWriter);
+    }
+
+    /**
+     * Reads every line of the stats log on a background thread, oldest first.
+     * Runs after every append asked for before it.
+     * */
+    public static CompletableFuture<List<String>> loadStatsLogAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try (BufferedReader reader = new BufferedReader(new FileReader(statsLogFile))) {
+                return reader.lines().toList();
+
+            } catch (FileNotFoundException e) {
+                // No game was finished yet
+                return List.<String>of();
+
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Cannot open file " + statsLogFile);
+                e.printStackTrace();
+                return List.<String>of();
+            }
+        }, scoreWriter);
     }
 }
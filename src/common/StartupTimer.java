@@ -0,0 +1,93 @@
+package common;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the startup of the application: the first frame, the first complete frame
+ * (drawn with the preloaded font and images) and the baked textures.
+ * Run with `-Dblocks.timing=true` to print the timings to stderr, and with
+ * `-Dblocks.exitAfterStartup=true` to quit once a complete frame was drawn and the
+ * textures are baked (used for CDS archive training runs, see scripts/build-cds.sh,
+ * so the archive has every class the startup needs, not only those of the first paint). <br>
+ * Work the menu doesn't need can wait for it with afterFirstCompleteFrame,
+ * so it doesn't compete with the font and the menu for the CPU.
+ * */
+public class StartupTimer {
+    private static final boolean enabled = Boolean.getBoolean("blocks.timing");
+    private static final boolean exitAfterStartup = Boolean.getBoolean("blocks.exitAfterStartup");
+    private static long mainStartNanos = System.nanoTime();
+    private static boolean firstFrameDrawn;
+    private static boolean firstCompleteFrameDrawn;
+    // Only changed on the Swing UI Thread, so a frame is only complete if it was painted after it
+    private static boolean resourcesLoaded;
+    private static final CompletableFuture<Void> firstCompleteFrame = new CompletableFuture<>();
+    private static volatile boolean texturesBaked;
+    // Timings are only printed once the first complete frame is drawn, since printing the first one
+    // loads the management classes, which would slow down the very frames being measured
+    private record Event(String name, long nanos) { }
+    private static final List<Event> pending = new ArrayList<>();
+
+    /** Called as the very first thing in main */
+    public static void markMainStart() {
+        mainStartNanos = System.nanoTime();
+    }
+
+    /** Called on the Swing UI Thread once the font and ui images are loaded, right before repainting */
+    public static void markResourcesLoaded() {
+        resourcesLoaded = true;
+        if (enabled) report("Resources loaded");
+    }
+
+    /** Called once the texture packs are baked (or failed to) */
+    public static void markTexturesBaked() {
+        texturesBaked = true;
+        if (enabled) report("Textures baked");
+        exitIfStarted();
+    }
+
+    /** Called by the panels at the end of every paint, on the Swing UI Thread */
+    public static void markFrameDrawn() {
+        if (!firstFrameDrawn) {
+            firstFrameDrawn = true;
+            if (enabled) report("First frame");
+        }
+
+        if (!firstCompleteFrameDrawn && resourcesLoaded) {
+            // Timed before completing, which already starts whatever waited for it
+            firstCompleteFrameDrawn = true;
+            if (enabled) report("First complete frame");
+            firstCompleteFrame.complete(null);
+            exitIfStarted();
+        }
+    }
+
+    /**
+     * Completes once the first complete frame is drawn. That happens within the paint, on the Swing
+     * UI Thread, so anything slow has to be chained with the Async methods, on a background executor.
+     * */
+    public static CompletableFuture<Void> afterFirstCompleteFrame() {
+        return firstCompleteFrame;
+    }
+
+    private static void exitIfStarted() {
+        if (exitAfterStartup && firstCompleteFrame.isDone() && texturesBaked) System.exit(0);
+    }
+
+    private static synchronized void report(String event) {
+        pending.add(new Event(event, System.nanoTime()));
+        if (!firstCompleteFrameDrawn) return;
+
+        // JVM uptime also includes the time it took the JVM to boot and load classes before main
+        long nowNanos = System.nanoTime();
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        for (Event pendingEvent : pending) {
+            double sinceMain = (pendingEvent.nanos() - mainStartNanos) / 1e6;
+            long sinceJvmStart = uptime - (nowNanos - pendingEvent.nanos()) / 1_000_000;
+            System.err.printf("%s: %.1f ms after main, %d ms after JVM start%n", pendingEvent.name(), sinceMain, sinceJvmStart);
+        }
+        pending.clear();
+    }
+}
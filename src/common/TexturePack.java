@@ -0,0 +1,412 @@
+package common;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A folder of block textures (see ResourceManager.setTexturePack), baked into
+ * one pre-scaled image (an "atlas") per block size. Each atlas is just every
+ * tile of the pack placed side by side, so a scale only has to be computed once. <br> <br>
+ * Baked atlases are also saved under `res/.cache/`, keyed by the pack's content hash and
+ * the block size, so later runs can load the whole pack with a single image read
+ * instead of decoding and rescaling every PNG. <br> <br>
+ * Baking, the disk cache and hot reloads all happen on one background thread, and painting
+ * never waits for them: until the atlas of a size is ready, the tiles of the closest size
+ * already baked are returned (and drawn scaled), then the new atlas is swapped in.
+ * Sizes asked for while the window is being resized are only baked once it settles.
+ * */
+public class TexturePack {
+    private static final String cacheDir = ".cache";
+    private static final int maxAtlases = 6;
+    // A resize drag asks for a new size every few frames, only the one it stops at gets baked
+    private static final long settleNanos = TimeUnit.MILLISECONDS.toNanos(200);
+
+    // Shared by every pack. Running one thing at a time is what keeps the baking code free of locks.
+    private static final ScheduledExecutorService baker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "texture-baker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public final String name;
+    private final File folder;
+    private final File cacheFolder;
+    private final Runnable onChange; // Called on the baker thread after an atlas was swapped in
+
+    // What the pack folder contained at the last scan, replaced (never modified) on the baker thread
+    private volatile Contents contents;
+
+    // Decoded source images, only filled when an atlas has to be baked from scratch. Baker thread only.
+    private final Map<String, BufferedImage> sources = new HashMap<>();
+    // blockSize -> baked atlas. Atlases are never modified after being put here, a
+    // changed tile creates a new Atlas instead, so readers never see a half drawn one.
+    private final Map<Integer, Atlas> atlases = new ConcurrentHashMap<>();
+    // Sizes paints asked for that aren't baked, with when they were last asked for (System.nanoTime)
+    private final Map<Integer, AtomicLong> missedSizes = new ConcurrentHashMap<>();
+    private volatile long lastNewMissNanos; // When a size was first missed, most recently
+    private final AtomicBoolean settleScheduled = new AtomicBoolean();
+
+    /**
+     * Tile names (file names without .png) in atlas order, sorted so the order only depends on the content.
+     * Lookups are case-insensitive, since some packs name their files "square.png" instead of "Square.png"
+     * */
+    private record Contents(List<String> tileNames, Map<String, Integer> tileIndices, String contentHash) { }
+
+    /** A baked set of tiles for one block size, along with the contents it was baked from */
+    private static class Atlas {
+        final BufferedImage image;
+        final BufferedImage[] tiles;
+        final Contents contents;
+        final int blockSize;
+
+        Atlas(BufferedImage image, Contents contents, int blockSize) {
+            this.image = image;
+            this.contents = contents;
+            this.blockSize = blockSize;
+            this.tiles = new BufferedImage[contents.tileNames().size()];
+            for (int tile = 0; tile < tiles.length; tile++)
+                tiles[tile] = image.getSubimage(tile * blockSize, 0, blockSize, blockSize);
+        }
+    }
+
+    /** Scans the pack folder (within baseDir), does not decode any images yet */
+    public TexturePack(String name, File baseDir, Runnable onChange) {
+        this.name = name;
+        this.folder = new File(baseDir, name);
+        this.cacheFolder = new File(baseDir, cacheDir);
+        this.onChange = onChange;
+        scan();
+    }
+
+    /** Lists every folder within baseDir that looks like a texture pack (contains PNGs) */
+    public static List<String> listPacks(File baseDir) {
+        List<String> packs = new ArrayList<>();
+        File[] folders = baseDir.listFiles(File::isDirectory);
+        if (folders == null) return packs;
+
+        for (File folder : folders) {
+            if (folder.getName().startsWith(".")) continue;
+            String[] images = folder.list((dir, file) -> file.endsWith(".png"));
+            if (images != null && images.length > 0) packs.add(folder.getName());
+        }
+
+        Collections.sort(packs);
+        return packs;
+    }
+
+    /** Re-reads the tile list and the content hash of the pack folder */
+    private void scan() {
+        String[] files = folder.list((dir, file) -> file.endsWith(".png"));
+        List<String> names = new ArrayList<>();
+        if (files != null)
+            for (String file : files)
+                names.add(tileName(file));
+        Collections.sort(names);
+
+        Map<String, Integer> indices = new HashMap<>();
+        for (int tile = 0; tile < names.size(); tile++)
+            indices.put(names.get(tile).toLowerCase(Locale.ROOT), tile);
+
+        contents = new Contents(names, indices, hashContent(names));
+    }
+
+    private static String tileName(String file) {
+        return file.substring(0, file.length() - ".png".length());
+    }
+
+    /** SHA-256 over the name and bytes of every tile, shortened to 16 hex characters */
+    private String hashContent(List<String> names) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String tile : names) {
+                digest.update(tile.getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(new File(folder, tile + ".png").toPath()));
+            }
+
+            StringBuilder hex = new StringBuilder();
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 8; i++)
+                hex.append(String.format("%02x", hash[i]));
+            return hex.toString();
+
+        } catch (IOException e) {
+            // Can happen while a tile is still being written by an image editor,
+            // the watcher will rescan once the file is complete.
+            return "unhashed";
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+
+    /**
+     * Returns the tile scaled to blockSize, or null if the pack has no such tile. Never waits:
+     * if that size isn't baked yet, the tile of the closest baked size is returned in the meantime
+     * (null if nothing is baked yet), and the size gets baked once no other new size was asked for
+     * during a moment (see bakeSettledSizes). Listeners are called once it is ready.
+     * */
+    public BufferedImage getTile(String block, int blockSize) {
+        Atlas atlas = atlases.get(blockSize);
+        if (atlas == null) {
+            bakeLater(blockSize);
+            atlas = closestAtlas(blockSize);
+            if (atlas == null) return null;
+        }
+
+        Integer tile = atlas.contents.tileIndices().get(block.toLowerCase(Locale.ROOT));
+        return tile == null ? null : atlas.tiles[tile];
+    }
+
+    /**
+     * Bakes the atlas of that size in the background, so the first frame using it doesn't have to
+     * fall back to another size. Unlike the sizes asked for by getTile, this also saves the atlas to
+     * the disk cache. Sizes only passed through while the window is being resized are never saved,
+     * so they don't fill up the cache folder.
+     * */
+    public CompletableFuture<Void> prepare(int blockSize) {
+        return CompletableFuture.runAsync(() -> {
+            Atlas atlas = atlases.get(blockSize);
+            if (atlas == null) atlas = publish(loadOrBake(blockSize));
+            if (!getCacheFile(atlas.contents, blockSize).isFile())
+                saveCachedAtlas(atlas);
+        }, baker);
+    }
+
+    private void bakeLater(int blockSize) {
+        long now = System.nanoTime();
+        AtomicLong lastAsked = missedSizes.get(blockSize);
+        if (lastAsked != null) {
+            lastAsked.set(now);
+            return;
+        }
+
+        missedSizes.put(blockSize, new AtomicLong(now));
+        lastNewMissNanos = now;
+        // With nothing to fall back to, nothing would be drawn at all until then
+        if (settleScheduled.compareAndSet(false, true))
+            baker.schedule(this::bakeSettledSizes, atlases.isEmpty() ? 0 : settleNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs on the baker once no new size was missed for settleNanos. Only the sizes painted since
+     * the last new one are still in use, the others were passed through while resizing and are dropped.
+     * */
+    private void bakeSettledSizes() {
+        long sinceNewMiss = System.nanoTime() - lastNewMissNanos;
+        if (sinceNewMiss < settleNanos && !atlases.isEmpty()) {
+            baker.schedule(this::bakeSettledSizes, settleNanos - sinceNewMiss, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        settleScheduled.set(false);
+        long settledAt = lastNewMissNanos;
+        for (Map.Entry<Integer, AtomicLong> entry : missedSizes.entrySet()) {
+            int blockSize = entry.getKey();
+            missedSizes.remove(blockSize);
+            if (entry.getValue().get() >= settledAt && !atlases.containsKey(blockSize))
+                publish(loadOrBake(blockSize));
+        }
+    }
+
+    /**
+     * Swaps the atlas in, the next paint uses it. Resizing the window goes through a lot of block
+     * sizes, so only a few are kept: the one furthest from the new size goes, which keeps close
+     * ones around to fall back to.
+     * */
+    private Atlas publish(Atlas atlas) {
+        atlases.put(atlas.blockSize, atlas);
+        if (atlases.size() > maxAtlases) {
+            Atlas furthest = atlas;
+            for (Atlas other : atlases.values())
+                if (Math.abs(other.blockSize - atlas.blockSize) > Math.abs(furthest.blockSize - atlas.blockSize))
+                    furthest = other;
+            atlases.remove(furthest.blockSize);
+        }
+
+        onChange.run();
+        return atlas;
+    }
+
+    private Atlas closestAtlas(int blockSize) {
+        Atlas closest = null;
+        for (Atlas atlas : atlases.values())
+            if (closest == null || Math.abs(atlas.blockSize - blockSize) < Math.abs(closest.blockSize - blockSize))
+                closest = atlas;
+        return closest;
+    }
+
+    private Atlas loadOrBake(int blockSize) {
+        Contents current = contents;
+        Atlas atlas = loadCachedAtlas(current, blockSize);
+        return atlas != null ? atlas : bakeAtlas(current, blockSize);
+    }
+
+    private File getCacheFile(Contents contents, int blockSize) {
+        return new File(cacheFolder, name + "-" + contents.contentHash() + "-" + blockSize + ".png");
+    }
+
+    private Atlas loadCachedAtlas(Contents contents, int blockSize) {
+        File cacheFile = getCacheFile(contents, blockSize);
+        if (!cacheFile.isFile()) return null;
+
+        try {
+            BufferedImage image = ImageIO.read(cacheFile);
+            // Only trust the cache if it has the expected dimensions
+            if (image == null ||
+                image.getWidth() != contents.tileNames().size() * blockSize ||
+                image.getHeight() != blockSize)
+                return null;
+
+            return new Atlas(toCompatible(image), contents, blockSize);
+
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable texture cache: " + cacheFile);
+            return null;
+        }
+    }
+
+    private void saveCachedAtlas(Atlas atlas) {
+        if (!cacheFolder.isDirectory() && !cacheFolder.mkdirs()) return;
+
+        // Remove the atlases baked from older versions of this pack at this size. Only exactly
+        // `<name>-<16 hex digits>-<size>.png`, a pack named like "default-hd" has its own
+        File cacheFile = getCacheFile(atlas.contents, atlas.blockSize);
+        Pattern stalePattern = Pattern.compile(Pattern.quote(name) + "-[0-9a-f]{16}-" + atlas.blockSize + "\\.png");
+        File[] stale = cacheFolder.listFiles((dir, file) ->
+            stalePattern.matcher(file).matches() && !file.equals(cacheFile.getName()));
+        if (stale != null)
+            for (File file : stale) file.delete();
+
+        try {
+            ImageIO.write(atlas.image, "png", cacheFile);
+        } catch (IOException e) {
+            System.err.println("Cannot write texture cache " + cacheFile);
+            e.printStackTrace();
+        }
+    }
+
+    private Atlas bakeAtlas(Contents contents, int blockSize) {
+        List<String> names = contents.tileNames();
+        BufferedImage image = new BufferedImage(
+            Math.max(1, names.size() * blockSize), blockSize, BufferedImage.TYPE_INT_ARGB
+        );
+
+        Graphics2D g2d = image.createGraphics();
+        for (int tile = 0; tile < names.size(); tile++)
+            drawTile(g2d, getSource(names.get(tile)), tile, blockSize);
+        g2d.dispose();
+
+        return new Atlas(image, contents, blockSize);
+    }
+
+    private static void drawTile(Graphics2D g2d, BufferedImage source, int tile, int blockSize) {
+        // https://docs.oracle.com/javase/tutorial/2d/advanced/quality.html
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2d.setComposite(AlphaComposite.Src); // Replace the old pixels, including transparent ones
+        g2d.setColor(new Color(0, 0, 0, 0));
+        g2d.fillRect(tile * blockSize, 0, blockSize, blockSize);
+        if (source != null)
+            g2d.drawImage(source, tile * blockSize, 0, blockSize, blockSize, null);
+    }
+
+    private BufferedImage getSource(String tile) {
+        return sources.computeIfAbsent(tile, this::decodeSource);
+    }
+
+    private BufferedImage decodeSource(String tile) {
+        File file = new File(folder, tile + ".png");
+        try {
+            return ImageIO.read(file);
+        } catch (IOException e) {
+            System.err.println("Failed to load image: " + file);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Converts the decoded cache image into the same format the baked atlases use */
+    private static BufferedImage toCompatible(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) return image;
+
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = converted.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return converted;
+    }
+
+
+    // Hot Reloading (Called by TextureWatcher)
+
+    /**
+     * Called when tile files of this pack changed on disk. If only existing tiles changed,
+     * just those tiles are redrawn into a copy of each baked atlas, otherwise (tiles were
+     * added or removed) every atlas is baked again. Done on the baker thread, painting keeps
+     * using the previous atlases until the new ones are swapped in.
+     * */
+    void reloadTiles(Collection<String> changedFiles) {
+        List<String> files = List.copyOf(changedFiles);
+        baker.execute(() -> {
+            List<String> oldNames = contents.tileNames();
+            scan();
+            Contents current = contents;
+
+            boolean sameTiles = oldNames.equals(current.tileNames());
+            for (String file : files)
+                sources.remove(tileName(file));
+
+            List<Atlas> reloaded = new ArrayList<>();
+            for (Atlas previous : atlases.values()) {
+                Atlas atlas;
+
+                if (sameTiles) {
+                    BufferedImage image = copyOf(previous.image);
+                    Graphics2D g2d = image.createGraphics();
+                    for (String file : files) {
+                        String tile = tileName(file);
+                        Integer index = current.tileIndices().get(tile.toLowerCase(Locale.ROOT));
+                        if (index != null) drawTile(g2d, getSource(tile), index, previous.blockSize);
+                    }
+                    g2d.dispose();
+                    atlas = new Atlas(image, current, previous.blockSize);
+
+                } else atlas = bakeAtlas(current, previous.blockSize);
+
+                atlases.put(atlas.blockSize, atlas);
+                reloaded.add(atlas);
+            }
+            onChange.run();
+
+            // Only written once the new tiles are already showing
+            for (Atlas atlas : reloaded)
+                saveCachedAtlas(atlas);
+        });
+    }
+
+    private static BufferedImage copyOf(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        copy.setData(image.getRaster());
+        return copy;
+    }
+
+    File getFolder() {
+        return folder;
+    }
+}
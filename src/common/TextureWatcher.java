@@ -0,0 +1,85 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the folders of the loaded texture packs and rebuilds the tiles that changed,
+ * so texture artists can see their edits without restarting the game.
+ * Runs on its own daemon thread.
+ * */
+class TextureWatcher implements Runnable {
+    // Image editors usually write a file in several steps, so wait this long
+    // after the last change before reloading.
+    private static final long settleMillis = 150;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, TexturePack> packs = new HashMap<>();
+
+    TextureWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        Thread thread = new Thread(this, "texture-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void watch(TexturePack pack) {
+        try {
+            WatchKey key = pack.getFolder().toPath().register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE
+            );
+            synchronized (packs) {
+                packs.put(key, pack);
+            }
+
+        } catch (IOException e) {
+            System.err.println("Cannot watch texture pack " + pack.name);
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run() {
+        // Changed file names per pack, collected until things settle down
+        Map<TexturePack, Set<String>> pending = new HashMap<>();
+
+        while (true) {
+            try {
+                WatchKey key = pending.isEmpty()
+                    ? watchService.take()
+                    : watchService.poll(settleMillis, TimeUnit.MILLISECONDS);
+
+                if (key == null) {
+                    // Nothing changed for a while, apply everything pending.
+                    // The packs tell the listeners once the new tiles are baked.
+                    for (Map.Entry<TexturePack, Set<String>> entry : pending.entrySet())
+                        entry.getKey().reloadTiles(entry.getValue());
+                    pending.clear();
+                    continue;
+                }
+
+                TexturePack pack;
+                synchronized (packs) {
+                    pack = packs.get(key);
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (pack == null || !(event.context() instanceof Path path)) continue;
+                    String file = path.getFileName().toString();
+                    if (file.endsWith(".png"))
+                        pending.computeIfAbsent(pack, p -> new HashSet<>()).add(file);
+                }
+                key.reset();
+
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+}
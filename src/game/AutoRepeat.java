@@ -0,0 +1,52 @@
+package game;
+
+/**
+ * Delayed auto shift (DAS) and auto repeat rate (ARR) of a held key: the first move
+ * happens on the key press, then after `dasFrames` it repeats every `arrFrames`.
+ * An ARR of 0 moves all the way in one frame. <br>
+ * The moves owed are computed from the number of frames held, instead of
+ * counting down timers, so any amount of frames can be caught up in one update.
+ * */
+public class AutoRepeat {
+    public static final int INSTANT = Integer.MAX_VALUE; // Moves for an ARR of 0, "as far as possible"
+
+    private final int dasFrames;
+    private final int arrFrames;
+
+    private boolean held;
+    private long framesHeld;
+    private long repeatsDone;
+
+    public AutoRepeat(int dasFrames, int arrFrames) {
+        this.dasFrames = Math.max(0, dasFrames);
+        this.arrFrames = Math.max(0, arrFrames);
+    }
+
+    /** Called when the key is pressed, the press itself already made the first move */
+    public void press() {
+        held = true;
+        framesHeld = 0;
+        repeatsDone = 0;
+    }
+
+    public void release() {
+        held = false;
+    }
+
+    public boolean isHeld() {
+        return held;
+    }
+
+    /** Advances by that many frames and returns how many repeated moves are owed for them */
+    public int update(int frames) {
+        if (!held) return 0;
+        framesHeld += frames;
+        if (framesHeld < dasFrames) return 0;
+        if (arrFrames == 0) return INSTANT;
+
+        long totalRepeats = 1 + (framesHeld - dasFrames) / arrFrames;
+        int owed = (int) (totalRepeats - repeatsDone);
+        repeatsDone = totalRepeats;
+        return owed;
+    }
+}
@@ -1,19 +1,45 @@
 package game;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Random;
 
 /** Board holding tetrominoes and core game logic */
 public class Board {
-    private final ArrayList<Tetromino.Type> bag; // Contains the Next pieces
-    private final Tetromino.Type[][] grid; // Static Blocks location (For collision and rendering)
+    private static final Tetromino.Type[] TYPES = Tetromino.Type.values();
+    private static final int BAG_CAPACITY = 16; // Never holds more than 4 + 7 pieces
+    private static final int SPAWN_Y = 1; // Row new pieces start at
+
+    // The next pieces, as a ring buffer of Tetromino.Type ordinals
+    private final byte[] bag = new byte[BAG_CAPACITY];
+    private int bagStart;
+    private int bagSize;
+
+    // Static Blocks location (For collision and rendering). One byte per cell, row after row,
+    // 0 for an empty cell, otherwise the Tetromino.Type ordinal + 1. A single flat array keeps
+    // a board small, which matters when a lot of them are kept around (versus mode, search, ...)
+    private final byte[] cells;
+    // State of the board's own random number generator (SplitMix64). A single long is
+    // cheap to save and restore, which Random's internal seed isn't (see applyPlacement).
+    // Every board has its own, so boards simulated on other threads don't share one.
+    private long rngState;
+    // One bit per row for every column (bit `row` set if that cell is filled), plus a "floor"
+    // bit at boardHeight. Lets the drop distance of a piece be found without stepping row by row.
+    private final int[] columnMasks;
 
     private Tetromino.Type heldPiece; // You don't need to store its location, so storing the type is a simpler
     private Tetromino currentPiece;
     private GameState gameState; // Mainly to signify to the UI the user has lost, or paused the game
     private boolean heldPieceLock; // You can only switch with the held piece once per block.
     private int score;
+    private int linesCleared; // Total amount of rows cleared this game
+
+    // Gravity and lock delay state, see tick()
+    private double gravityProgress; // Fraction of a row the piece has fallen so far
+    private int lockFrames; // Frames the current piece has been resting on the stack
+    private int lockResets; // Times moving or rotating restarted the lock delay for the current piece
+
+    private BoardEvents events; // Only created once a listener is added, see addListener
 
     public final int boardWidth;
     public final int boardHeight;
@@ -25,21 +51,63 @@ public class Board {
     }
 
     public Board(int width, int height) {
+        this(width, height, new Random().nextLong());
+    }
+
+    /**
+     * Two boards created with the same seed get the exact same sequence of pieces.
+     * The height can be at most 30 rows (see columnMasks).
+     * */
+    public Board(int width, int height, long seed) {
+        if (height > 30) throw new IllegalArgumentException("Boards can be at most 30 rows high");
+
+        rngState = seed;
         gameState = GameState.Playing;
         boardHeight = height;
         boardWidth = width;
         score = 0;
 
-        grid = new Tetromino.Type[height][width];
-        bag = new ArrayList<>();
+        cells = new byte[width * height];
+        columnMasks = new int[width];
+        rebuildColumnMasks();
         generateNewPiece();
     }
 
+    /** See copy */
+    private Board(Board other) {
+        boardWidth = other.boardWidth;
+        boardHeight = other.boardHeight;
+        cells = other.cells.clone();
+        columnMasks = other.columnMasks.clone();
+        System.arraycopy(other.bag, 0, bag, 0, BAG_CAPACITY);
+        bagStart = other.bagStart;
+        bagSize = other.bagSize;
+        rngState = other.rngState;
+
+        heldPiece = other.heldPiece;
+        currentPiece = other.currentPiece.duplicate();
+        gameState = other.gameState;
+        heldPieceLock = other.heldPieceLock;
+        score = other.score;
+        linesCleared = other.linesCleared;
+        gravityProgress = other.gravityProgress;
+        lockFrames = other.lockFrames;
+        lockResets = other.lockResets;
+    }
+
+    /**
+     * An exact copy of the game (without the listeners), which plays on exactly like this one.
+     * Used to search on another thread (see HintSearch) while this one keeps being played.
+     * */
+    public Board copy() {
+        return new Board(this);
+    }
+
     /** Pause and Unpause the game */
     public void pause() {
-        gameState = gameState == GameState.Playing
+        setGameState(gameState == GameState.Playing
             ? GameState.Paused
-            : GameState.Playing;
+            : GameState.Playing);
     }
 
     /**
@@ -50,19 +118,30 @@ public class Board {
      * */
     public void generateNewPiece() {
         // Keep the bag full
-        if (bag.size() < 5) {
-            // List out all possible Tetromino types
-            ArrayList<Tetromino.Type> allTypes = new ArrayList<>();
-            Collections.addAll(allTypes, Tetromino.Type.values());
+        if (bagSize < 5) {
             // The bag should contain all possible types
             // With a completely random sequence they appear in.
-            Collections.shuffle(allTypes);
-            Collections.addAll(bag, allTypes.toArray(Tetromino.Type[]::new));
+            // (Same shuffle as Collections.shuffle, done in place at the end of the bag)
+            int first = bagStart + bagSize;
+            int count = Tetromino.PIECE_TYPES.length;
+            for (int index = 0; index < count; index++)
+                bag[(first + index) % BAG_CAPACITY] = (byte) Tetromino.PIECE_TYPES[index].ordinal();
+
+            for (int index = count; index > 1; index--) {
+                int a = (first + index - 1) % BAG_CAPACITY;
+                int b = (first + nextRandom(index)) % BAG_CAPACITY;
+                byte swap = bag[a];
+                bag[a] = bag[b];
+                bag[b] = swap;
+            }
+            bagSize += count;
         }
 
         // Replace the currentPiece with a new type from the bag
-        initializeWithType(bag.get(0));
-        bag.remove(0);
+        Tetromino.Type next = TYPES[bag[bagStart]];
+        bagStart = (bagStart + 1) % BAG_CAPACITY;
+        bagSize--;
+        initializeWithType(next);
     }
 
     /**
@@ -77,6 +156,7 @@ public class Board {
         heldPieceLock = true;
 
         Tetromino.Type currentPieceType = currentPiece.getType();
+        emit(BoardEvents.Type.PieceHeld, currentPieceType, 0, 0, 0);
         if (heldPiece == null) {
             // At the start of the game heldPiece is null
             // so, we can't really switch it with the currentPiece.
@@ -94,45 +174,192 @@ public class Board {
      * position with the type provided
      * */
     private void initializeWithType(Tetromino.Type type) {
-        currentPiece = null;
-        currentPiece = new Tetromino(type);
-
-        int yPos = 1;
+        int yPos = SPAWN_Y;
         int xPos = boardWidth / 2;
+        Point[] offsets = Tetromino.getRotatedOffsets(type, 0);
+
+        // The piece object is reused, so spawning a piece doesn't allocate
+        if (currentPiece == null) currentPiece = new Tetromino(type);
+        currentPiece.reset(type, offsets, 0, 0);
 
-        Point[] initialPosition = currentPiece.translate(xPos, yPos);
         // If It can't put the tetromino in the initial position it
         // usually means Game Over.
-        if (!doesCollide(initialPosition))
+        if (!collidesAt(offsets, xPos, yPos)) {
             currentPiece.setCurrentPosition(xPos, yPos);
+            emitPiece(BoardEvents.Type.PieceSpawned, 0);
+        }
+
+        else setGameState(GameState.Stopped);
+    }
+
+    /** Same as doesCollide, for the blocks of a piece at that position */
+    private boolean collidesAt(Point[] offsets, int x, int y) {
+        for (Point offset : offsets) {
+            int col = x + offset.x;
+            int row = y + offset.y;
+            if (col < 0 || col >= boardWidth || row < 0 || row >= boardHeight)
+                return true;
+            if (cells[row * boardWidth + col] != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /** Next number of the board's SplitMix64 generator, between 0 (inclusive) and bound */
+    private int nextRandom(int bound) {
+        long z = (rngState += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (int) (((z >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * Advances the game by one frame (1/60th of a second): applies gravity for the
+     * current level and locks the piece once it rested on the stack for long enough.
+     * However many rows gravity moves the piece this frame (up to 20 at 20G), it is
+     * moved there in one step. Returns true if anything visible changed. <br>
+     * The events of everything that happened since the last tick (including the moves
+     * made in between) are handed to the listeners at the end, even when not playing.
+     * */
+    public boolean tick() {
+        boolean changed = gameState == GameState.Playing && applyGravity();
+        flushEvents();
+        return changed;
+    }
+
+    private boolean applyGravity() {
+        boolean changed = false;
+        gravityProgress += Gravity.getRowsPerFrame(getLevel());
+        int rows = (int) gravityProgress;
+        gravityProgress -= rows;
+
+        int distance = getDropDistance(currentPiece);
+        if (rows > 0 && distance > 0) {
+            int fallen = Math.min(rows, distance);
+            Point position = currentPiece.getCurrentPosition();
+            currentPiece.setCurrentPosition(position.x, position.y + fallen);
+            emitPiece(BoardEvents.Type.PieceMoved, 0);
+            distance -= fallen;
+            lockFrames = 0;
+            changed = true;
+        }
+
+        if (distance == 0) {
+            // Resting on the stack, gravity can't carry over into the next piece
+            gravityProgress = 0;
+            if (++lockFrames >= Gravity.LOCK_DELAY_FRAMES) {
+                lockPiece();
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * How many rows the piece can fall before it lands on something.
+     * For every block, that is the amount of empty cells right below it in its column,
+     * which is the number of trailing zeros of the column mask shifted past the block.
+     * */
+    public int getDropDistance(Tetromino piece) {
+        int distance = boardHeight;
+        for (Point block : piece.getBlockCoordinates())
+            distance = Math.min(distance, Integer.numberOfTrailingZeros(columnMasks[block.x] >>> (block.y + 1)));
+        return distance;
+    }
 
-        else gameState = GameState.Stopped;
+    /** Recomputes every column mask from the grid, after rows moved */
+    private void rebuildColumnMasks() {
+        for (int col = 0; col < boardWidth; col++) {
+            int mask = 1 << boardHeight; // The floor
+            for (int row = 0; row < boardHeight; row++)
+                if (cells[row * boardWidth + col] != 0) mask |= 1 << row;
+            columnMasks[col] = mask;
+        }
     }
 
     /** Remove any full rows within the grid and add that as a point for the user */
     public void cleanupRows() {
-        ArrayList<Integer> rowsToClear = new ArrayList<>();
-        for (int row = boardHeight - 1; row > 0; row--) {
-            // Count how many columns of that row is filled
-            int colFilled = 0;
-            for (Tetromino.Type col : grid[row])
-                if (col != null) colFilled++;
-
-            // If the Row is full add it to the rowsToClear queue
-            if (colFilled >= boardWidth)
-                rowsToClear.add(row);
+        cleanupRows(null);
+    }
+
+    /** Like cleanupRows, but also saves the cleared rows into the undo record (if there is one) */
+    private void cleanupRows(PlacementUndo undo) {
+        // From the bottom up, every row that isn't full is moved down by the
+        // amount of full rows found below it, which overwrites the full rows.
+        int rowsCleared = 0;
+        int clearedRows = 0; // Bit `row` for every full row
+        for (int row = boardHeight - 1; row >= 0; row--) {
+            if (isRowFull(row)) {
+                if (undo != null)
+                    System.arraycopy(cells, row * boardWidth, undo.clearedCells, rowsCleared * boardWidth, boardWidth);
+                clearedRows |= 1 << row;
+                rowsCleared++;
+                continue;
+            }
+
+            if (rowsCleared > 0)
+                System.arraycopy(cells, row * boardWidth, cells, (row + rowsCleared) * boardWidth, boardWidth);
+        }
+
+        if (rowsCleared == 0) return;
+
+        // The rows at the very top are now empty
+        Arrays.fill(cells, 0, rowsCleared * boardWidth, (byte) 0);
+        if (undo != null) undo.clearedRows = clearedRows;
+        linesCleared += rowsCleared;
+        rebuildColumnMasks();
+        emit(BoardEvents.Type.RowsCleared, null, 0, 0, clearedRows);
+        addScore(rowsCleared * (100 + 50 * rowsCleared));
+    }
+
+    private boolean isRowFull(int row) {
+        int rowStart = row * boardWidth;
+        for (int col = 0; col < boardWidth; col++)
+            if (cells[rowStart + col] == 0) return false;
+        return true;
+    }
+
+    /**
+     * Pushes every static block up and fills the bottom `rows` rows with garbage,
+     * except for the hole column. Used by versus mode when an opponent clears lines.
+     * If blocks get pushed out of the top of the board, the game is over.
+     * */
+    public void addGarbageRows(int rows, int holeColumn) {
+        if (rows <= 0 || gameState == GameState.Stopped) return;
+        rows = Math.min(rows, boardHeight);
+
+        emit(BoardEvents.Type.GarbageAdded, null, holeColumn, 0, rows);
+
+        // Anything in the top rows would be pushed out of the board
+        for (int cell = 0; cell < rows * boardWidth; cell++) {
+            if (cells[cell] != 0) {
+                setGameState(GameState.Stopped);
+                break;
+            }
         }
 
-        // Starting from the top-most full row
-        Collections.reverse(rowsToClear);
-        for (int fullRowIndex : rowsToClear) {
-            score += 100 + (50 * rowsToClear.size());
+        System.arraycopy(cells, rows * boardWidth, cells, 0, (boardHeight - rows) * boardWidth);
+
+        byte garbage = (byte) (Tetromino.Type.Garbage.ordinal() + 1);
+        for (int row = boardHeight - rows; row < boardHeight; row++)
+            for (int col = 0; col < boardWidth; col++)
+                cells[row * boardWidth + col] = col == holeColumn ? 0 : garbage;
+        rebuildColumnMasks();
 
-            // Go up from the full row and move all the subsequent row down,
-            // Which will overwrite the full row.
-            for (int row = fullRowIndex - 1; row > 0; row--)
-                System.arraycopy(grid[row], 0, grid[row + 1], 0, boardWidth);
+        // The falling piece gets pushed up with the stack, if there is no room left it's game over
+        boolean pushed = false;
+        while (doesCollide(currentPiece.getBlockCoordinates())) {
+            Point position = currentPiece.getCurrentPosition();
+            if (position.y <= 0) {
+                setGameState(GameState.Stopped);
+                return;
+            }
+            currentPiece.setCurrentPosition(position.x, position.y - 1);
+            pushed = true;
         }
+        if (pushed) emitPiece(BoardEvents.Type.PieceMoved, 0);
     }
 
     /**
@@ -146,7 +373,7 @@ public class Board {
                 block.y < 0 || block.y > boardHeight - 1)
                 return true;
 
-            if (grid[block.y][block.x] != null)
+            if (cells[block.y * boardWidth + block.x] != 0)
                 return true;
         }
 
@@ -156,59 +383,90 @@ public class Board {
 
     // Movements (Mainly called by UI)
 
+    /** Drops the current piece straight down to where it lands and locks it immediately */
     public void dropPiece() {
-        // The default value should be the currentPiece
-        dropPiece(currentPiece, true);
-    }
-
-    /** Keep moving the target piece until it collides with something */
-    private void dropPiece(Tetromino target, boolean addScore) {
-        // Keep Dropping the Piece
-        // until it collides with something
-        while (true)
-            if (movePiece(target, 0, 1, addScore)) break;
+        int distance = getDropDistance(currentPiece);
+        Point position = currentPiece.getCurrentPosition();
+        currentPiece.setCurrentPosition(position.x, position.y + distance);
+        emitPiece(BoardEvents.Type.PieceDropped, distance);
+        addScore(distance); // A point for every row, like moving it down by hand
+        lockPiece();
     }
 
     /**
      * If forced is true, the invocation of the function is considered a
      * user input and a point is added to the user's score.
+     * A piece that can't move down any further isn't locked here, it goes through the
+     * same lock delay as with gravity (only hard drops lock right away).
      * */
     public void movePieceDown(boolean forced) { movePiece(currentPiece, 0, 1, forced); }
     public void movePieceRight() { movePiece(currentPiece, 1, 0, false); }
     public void movePieceLeft() { movePiece(currentPiece, -1, 0, false); }
 
+    /**
+     * Moves the current piece up to |columns| columns left (negative) or right (positive),
+     * stopping at the first collision. Used for auto repeat, which can owe several moves
+     * in a single frame. Returns the number of columns it actually moved.
+     * */
+    public int shiftPiece(int columns) {
+        int direction = Integer.signum(columns);
+        int remaining = Math.min(Math.abs(columns), boardWidth);
+        int moved = 0;
+
+        while (moved < remaining && !movePiece(currentPiece, direction, 0, false))
+            moved++;
+        return moved;
+    }
+
     /**
      * Returns true if it collided with something.
-     * If it collides something while moving down, and the target tetromino
-     * is the current piece, convert the current into a static block within
-     * the grid, and generate a new piece.
+     * Moving down restarts the lock delay like falling does, moving sideways uses up one of its resets.
      * */
     private boolean movePiece(Tetromino target, int deltaX, int deltaY, boolean addScore) {
         Point[] newCoordinates = target.translate(deltaX, deltaY);
         boolean doesCollideWithGrid = doesCollide(newCoordinates);
 
         if (!doesCollideWithGrid) {
-            if (addScore) score += 1;
             Point currentPosition = target.getCurrentPosition();
             target.setCurrentPosition(
                 currentPosition.x + deltaX,
                 currentPosition.y + deltaY
             );
+            if (deltaX != 0) resetLockDelay();
+            if (deltaY > 0) lockFrames = 0;
+            emitPiece(BoardEvents.Type.PieceMoved, 0);
+            if (addScore) addScore(1);
         }
 
-        // If the provided tetromino is the currentPiece and not the
-        // Shadow tetromino, attach it to the static block grid.
-        if (target.equals(currentPiece) && doesCollideWithGrid && deltaY > 0) {
-            // Convert the current piece blocks into a static block within the grid
-            for (Point block : target.getBlockCoordinates())
-                grid[block.y][block.x] = currentPiece.getType();
-            
-            cleanupRows();
-            generateNewPiece();
-            heldPieceLock = false; // Unlock Held Piece Lock
+        return doesCollideWithGrid;
+    }
+
+    /** Convert the current piece blocks into static blocks within the grid, and get the next piece */
+    private void lockPiece() {
+        byte type = (byte) (currentPiece.getType().ordinal() + 1);
+        for (Point block : currentPiece.getBlockCoordinates()) {
+            cells[block.y * boardWidth + block.x] = type;
+            columnMasks[block.x] |= 1 << block.y;
         }
+        emitPiece(BoardEvents.Type.PieceLocked, 0);
 
-        return doesCollideWithGrid;
+        cleanupRows();
+        generateNewPiece();
+        heldPieceLock = false; // Unlock Held Piece Lock
+        gravityProgress = 0;
+        lockFrames = 0;
+        lockResets = 0;
+    }
+
+    /**
+     * Moving or rotating a piece that is resting on the stack restarts its
+     * lock delay, but only a limited amount of times, so it can't stall forever.
+     * */
+    private void resetLockDelay() {
+        if (lockFrames > 0 && lockResets < Gravity.MAX_LOCK_RESETS) {
+            lockFrames = 0;
+            lockResets++;
+        }
     }
 
     public void rotatePieceCounterClockwise() { rotatePiece(false); }
@@ -223,8 +481,11 @@ public class Board {
         Point[] newOffsets = currentPiece.rotate(clockwise);
         Point[] newCoordinates = Tetromino.addOffsetsAndPosition(newOffsets, currentPosition);
 
-        if (!doesCollide(newCoordinates))
+        if (!doesCollide(newCoordinates)) {
             currentPiece.setBlocksOffsets(newOffsets);
+            resetLockDelay();
+            emitPiece(BoardEvents.Type.PieceRotated, clockwise ? 1 : -1);
+        }
 
         // If it does collide with something try doing a Wall Kick
         else {
@@ -233,15 +494,255 @@ public class Board {
             newCoordinates = Tetromino.addOffsetsAndPosition(newOffsets, currentPosition);
             if (!doesCollide(newCoordinates)) {
                 currentPiece.setBlocksOffsets(newOffsets);
+                resetLockDelay();
+                emitPiece(BoardEvents.Type.PieceRotated, clockwise ? 1 : -1);
                 return;
             }
 
             // Try moving Right
             currentPosition.x -= 2;
             newCoordinates = Tetromino.addOffsetsAndPosition(newOffsets, currentPosition);
-            if (!doesCollide(newCoordinates))
+            if (!doesCollide(newCoordinates)) {
                 currentPiece.setBlocksOffsets(newOffsets);
+                resetLockDelay();
+                emitPiece(BoardEvents.Type.PieceRotated, clockwise ? 1 : -1);
+                return;
+            }
+
+            // Neither kick worked, so the piece stays where it was
+            currentPosition.x += 1;
+        }
+    }
+
+
+    // Copy free search (Mainly used by bots)
+
+    /**
+     * Places a piece of that type, rotated clockwise `rotation` times, at column x: it is
+     * dropped straight down from the spawn row and locked, exactly like a hard drop
+     * (rows are cleared, score is added, and the next piece comes out of the queue).
+     * The type must be the current piece, or the piece that holding would swap in,
+     * in which case the hold happens first. <br>
+     * Returns the record needed to take it back with `undo`, or null (and changes nothing)
+     * if the placement isn't possible. <br>
+     * Placements record the same events as playing the move by hand would,
+     * undo forgets them again if they weren't handed to the listeners yet.
+     * */
+    public PlacementUndo applyPlacement(Tetromino.Type type, int rotation, int x) {
+        PlacementUndo undo = new PlacementUndo(boardWidth);
+        return applyPlacement(type, rotation, x, undo) ? undo : null;
+    }
+
+    /**
+     * Same as applyPlacement(type, rotation, x), but fills in the given (reusable) record,
+     * so it doesn't allocate anything. Returns false if the placement isn't possible.
+     * */
+    public boolean applyPlacement(Tetromino.Type type, int rotation, int x, PlacementUndo undo) {
+        if (gameState != GameState.Playing) return false;
+
+        // Which piece is being placed, the current one or the one holding would bring out
+        boolean hold = type != currentPiece.getType();
+        if (hold) {
+            Tetromino.Type swappedIn = heldPiece != null ? heldPiece : getNextPiece(0);
+            if (heldPieceLock || swappedIn != type) return false;
+        }
+
+        Point[] offsets = Tetromino.getRotatedOffsets(type, rotation);
+        if (collidesAt(offsets, x, SPAWN_Y)) return false;
+
+        // Save everything the placement is going to change
+        undo.clearedRows = 0;
+        System.arraycopy(columnMasks, 0, undo.columnMasks, 0, boardWidth);
+        undo.rngState = rngState;
+        undo.bagStart = bagStart;
+        undo.bagSize = bagSize;
+        undo.heldPiece = heldPiece;
+        undo.heldPieceLock = heldPieceLock;
+        undo.score = score;
+        undo.linesCleared = linesCleared;
+        undo.gameState = gameState;
+        undo.gravityProgress = gravityProgress;
+        undo.lockFrames = lockFrames;
+        undo.lockResets = lockResets;
+        undo.pieceType = currentPiece.getType();
+        undo.pieceOffsets = currentPiece.getBlocksOffsets();
+        undo.pieceX = currentPiece.getCurrentPosition().x;
+        undo.pieceY = currentPiece.getCurrentPosition().y;
+        undo.eventMark = events == null ? 0 : events.mark();
+
+        if (hold) {
+            // Same as switchWithHeldPiece, except no new piece has to be spawned for it
+            if (heldPiece == null) {
+                bagStart = (bagStart + 1) % BAG_CAPACITY;
+                bagSize--;
+            }
+            heldPiece = currentPiece.getType();
+            emit(BoardEvents.Type.PieceHeld, heldPiece, 0, 0, 0);
+        }
+
+        // Drop it straight down (see getDropDistance) and write it into the grid
+        int distance = boardHeight;
+        for (Point offset : offsets) {
+            int col = x + offset.x;
+            distance = Math.min(distance, Integer.numberOfTrailingZeros(columnMasks[col] >>> (SPAWN_Y + offset.y + 1)));
+        }
+        int y = SPAWN_Y + distance;
+
+        byte cell = (byte) (type.ordinal() + 1);
+        for (int block = 0; block < 4; block++) {
+            int col = x + offsets[block].x;
+            int row = y + offsets[block].y;
+            undo.pieceCells[block] = row * boardWidth + col;
+            cells[row * boardWidth + col] = cell;
+            columnMasks[col] |= 1 << row;
+        }
+
+        if (events != null && events.hasListeners()) {
+            events.push(BoardEvents.Type.PieceDropped, type, offsets, x, y, distance);
+            events.push(BoardEvents.Type.PieceLocked, type, offsets, x, y, 0);
+        }
+        addScore(distance); // Same as a hard drop
+        cleanupRows(undo);
+        generateNewPiece();
+        heldPieceLock = false;
+        gravityProgress = 0;
+        lockFrames = 0;
+        lockResets = 0;
+        return true;
+    }
+
+    /** Takes back a placement, the board ends up exactly as it was before it */
+    public void undo(PlacementUndo undo) {
+        int cleared = undo.clearedRows;
+        if (cleared != 0) {
+            // Going from the top down, every row gets back the contents it had before clearing:
+            // the saved contents for a cleared row, otherwise the row it was moved down to,
+            // which is as far down as the amount of cleared rows that were below it.
+            for (int row = 0; row < boardHeight; row++) {
+                int clearedBelow = Integer.bitCount(cleared >>> (row + 1));
+                if ((cleared & (1 << row)) != 0)
+                    System.arraycopy(undo.clearedCells, clearedBelow * boardWidth, cells, row * boardWidth, boardWidth);
+                else if (clearedBelow > 0)
+                    System.arraycopy(cells, (row + clearedBelow) * boardWidth, cells, row * boardWidth, boardWidth);
+            }
+        }
+
+        for (int cell : undo.pieceCells) cells[cell] = 0;
+
+        System.arraycopy(undo.columnMasks, 0, columnMasks, 0, boardWidth);
+        rngState = undo.rngState;
+        bagStart = undo.bagStart;
+        bagSize = undo.bagSize;
+        heldPiece = undo.heldPiece;
+        heldPieceLock = undo.heldPieceLock;
+        score = undo.score;
+        linesCleared = undo.linesCleared;
+        gameState = undo.gameState;
+        gravityProgress = undo.gravityProgress;
+        lockFrames = undo.lockFrames;
+        lockResets = undo.lockResets;
+        currentPiece.reset(undo.pieceType, undo.pieceOffsets, undo.pieceX, undo.pieceY);
+        if (events != null) events.rewind(undo.eventMark);
+    }
+
+    // Events (see BoardEvents)
+
+    /** The listener gets every event of this board from now on, in batches (see tick) */
+    public void addListener(BoardEvents.Listener listener) {
+        if (events == null) events = new BoardEvents();
+        events.addListener(listener);
+    }
+
+    public void removeListener(BoardEvents.Listener listener) {
+        if (events != null) events.removeListener(listener);
+    }
+
+    /**
+     * Hands the events recorded so far to the listeners right away.
+     * Only needed for boards that change without being ticked, tick already does this.
+     * */
+    public void flushEvents() {
+        if (events != null) events.flush();
+    }
+
+    /** Records an event, if anyone is listening. Cheap enough to call from anywhere */
+    private void emit(BoardEvents.Type type, Tetromino.Type piece, int x, int y, int value) {
+        if (events != null && events.hasListeners()) events.push(type, piece, null, x, y, value);
+    }
+
+    /** Records an event about the current piece, at its current position */
+    private void emitPiece(BoardEvents.Type type, int value) {
+        if (events == null || !events.hasListeners()) return;
+        Point position = currentPiece.getCurrentPosition();
+        events.push(type, currentPiece.getType(), currentPiece.getBlocksOffsets(), position.x, position.y, value);
+    }
+
+    private void addScore(int points) {
+        if (points == 0) return;
+        score += points;
+        emit(BoardEvents.Type.ScoreChanged, null, 0, 0, score);
+    }
+
+    private void setGameState(GameState state) {
+        if (state == gameState) return;
+        gameState = state;
+        emit(BoardEvents.Type.GameStateChanged, null, 0, 0, state.ordinal());
+    }
+
+    /**
+     * A 64 bit hash of the whole state of the game: the cells, the current piece (type, position
+     * and rotation), hold, the queue, the random number generator, score, lines, game state and the
+     * gravity and lock delay counters. Two boards that played the same game have the same hash,
+     * used to check replays (see Replay).
+     * */
+    public long stateHash() {
+        long hash = mix(boardWidth * 31L + boardHeight);
+        for (int cell = 0; cell < cells.length; cell += 8) {
+            long word = 0;
+            for (int index = cell; index < Math.min(cell + 8, cells.length); index++)
+                word = word << 8 | cells[index];
+            hash = mix(hash ^ word);
         }
+
+        Point position = currentPiece.getCurrentPosition();
+        hash = mix(hash ^ currentPiece.getType().ordinal() ^ (long) position.x << 8 ^ (long) position.y << 24);
+        for (Point offset : currentPiece.getBlocksOffsets())
+            hash = mix(hash ^ (offset.x + 2) ^ (offset.y + 2) << 4);
+
+        for (int index = 0; index < bagSize; index++)
+            hash = mix(hash ^ bag[(bagStart + index) % BAG_CAPACITY]);
+        hash = mix(hash ^ (heldPiece == null ? 0 : heldPiece.ordinal() + 1) ^ (heldPieceLock ? 16 : 0));
+        hash = mix(hash ^ rngState);
+        hash = mix(hash ^ score ^ (long) linesCleared << 32);
+        hash = mix(hash ^ gameState.ordinal() ^ (long) lockFrames << 8 ^ (long) lockResets << 24);
+        return mix(hash ^ Double.doubleToLongBits(gravityProgress));
+    }
+
+    /**
+     * A hash of only what matters to how the game can go on: which cells are filled (not by
+     * what), the current piece's type, hold and the queue (with the random number generator
+     * that refills it). Two boards with the same hash have the same placements ahead of
+     * them, whatever their score, or where the current piece currently is.
+     * */
+    long positionHash() {
+        long hash = mix(currentPiece.getType().ordinal() + 1 + (heldPiece == null ? 0 : heldPiece.ordinal() + 1) * 16L);
+        if (heldPieceLock) hash = mix(hash ^ 0xFF);
+        for (int mask : columnMasks) hash = mix(hash ^ mask);
+        for (int index = 0; index < bagSize; index++)
+            hash = mix(hash ^ bag[(bagStart + index) % BAG_CAPACITY] ^ 0x100);
+        return mix(hash ^ rngState);
+    }
+
+    /** SplitMix64's finalizer, every input bit affects every output bit */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Filled rows of that column as bits (see columnMasks), without the floor bit */
+    public int getColumnMask(int col) {
+        return columnMasks[col] & ~(1 << boardHeight);
     }
 
 
@@ -252,11 +753,29 @@ public class Board {
     }
 
     public Tetromino.Type getBlockTypeAt(int x, int y) {
-        return grid[y][x];
+        int cell = cells[y * boardWidth + x];
+        return cell == 0 ? null : TYPES[cell - 1];
+    }
+
+    /** Copies the raw cells (see `cells`) into the given array, which needs room for every cell */
+    public void copyCells(byte[] destination) {
+        System.arraycopy(cells, 0, destination, 0, cells.length);
+    }
+
+    /** The piece that comes out of the queue after `index` others, without copying the queue */
+    public Tetromino.Type getNextPiece(int index) {
+        return TYPES[bag[(bagStart + index) % BAG_CAPACITY]];
+    }
+
+    public int getNextPieceCount() {
+        return bagSize;
     }
 
     public Tetromino.Type[] getNextPieces() {
-        return bag.toArray(Tetromino.Type[]::new);
+        Tetromino.Type[] nextPieces = new Tetromino.Type[bagSize];
+        for (int index = 0; index < bagSize; index++)
+            nextPieces[index] = TYPES[bag[(bagStart + index) % BAG_CAPACITY]];
+        return nextPieces;
     }
 
     public GameState getGameState() {
@@ -267,14 +786,59 @@ public class Board {
         return currentPiece;
     }
 
+    /**
+     * Where applyPlacement would put a piece of that type, rotated clockwise `rotation` times at
+     * column x, as a new Tetromino. Null if it doesn't fit at the spawn row.
+     * */
+    public Tetromino getLandingPiece(Tetromino.Type type, int rotation, int x) {
+        Point[] offsets = Tetromino.getRotatedOffsets(type, rotation);
+        if (collidesAt(offsets, x, SPAWN_Y)) return null;
+
+        Tetromino piece = new Tetromino(type);
+        piece.setBlocksOffsets(offsets);
+        piece.setCurrentPosition(x, SPAWN_Y);
+        piece.setCurrentPosition(x, SPAWN_Y + getDropDistance(piece));
+        return piece;
+    }
+
+    /**
+     * Whether a piece of that type can be brought to column x by hand from where it comes out:
+     * turned clockwise `rotation` times (counterclockwise once for 3) at the spawn position, then
+     * shifted over at the spawn row, without running into the stack on the way. applyPlacement
+     * doesn't check this, it only needs the piece to fit above column x. Kicks aren't tried,
+     * so a turn that only works with one counts as blocked.
+     * */
+    public boolean canReachAtSpawn(Tetromino.Type type, int rotation, int x) {
+        int spawnX = boardWidth / 2;
+        // Turning twice goes through either of the quarter turns
+        if (rotation == 2 && collidesAt(Tetromino.getRotatedOffsets(type, 1), spawnX, SPAWN_Y) &&
+            collidesAt(Tetromino.getRotatedOffsets(type, 3), spawnX, SPAWN_Y)) return false;
+
+        Point[] offsets = Tetromino.getRotatedOffsets(type, rotation);
+        int step = Integer.signum(x - spawnX);
+        for (int col = spawnX; ; col += step) {
+            if (collidesAt(offsets, col, SPAWN_Y)) return false;
+            if (col == x) return true;
+        }
+    }
+
     /** Shadow refers to the predicted landing place of the currentPiece */
     public Tetromino getCurrentPieceShadow() {
         Tetromino shadow = currentPiece.duplicate();
-        dropPiece(shadow, false);
+        Point position = shadow.getCurrentPosition();
+        shadow.setCurrentPosition(position.x, position.y + getDropDistance(shadow));
         return shadow;
     }
 
     public int getScore() {
         return score;
     }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    public int getLevel() {
+        return Gravity.getLevel(linesCleared);
+    }
 }
@@ -0,0 +1,208 @@
+package game;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything that happened to a Board, as a stream of typed events, so the UI, score
+ * saving, recording and so on can follow a board without rescanning the whole grid. <br>
+ * Events are written into a preallocated ring buffer (one slot per event, spread over
+ * a few primitive arrays, so recording one doesn't allocate) and handed to the listeners
+ * in batches: at the end of every Board.tick, when Board.flushEvents is called, or
+ * when the buffer fills up. If it fills up while a batch is being handed out, it grows. <br>
+ * A listener reads the batch with size() and the getters, by index. The batch is only
+ * valid during the call, events are never kept around. <br>
+ * What x, y and value mean depends on the event type:
+ * <ul>
+ *   <li>PieceSpawned, PieceMoved, PieceRotated: the piece and its new position,
+ *       getBlockX and getBlockY give the cells of its blocks.
+ *       For PieceRotated, value is 1 for clockwise and -1 for counterclockwise</li>
+ *   <li>PieceDropped: a hard drop, the piece where it landed (with its cells like above),
+ *       value is the amount of rows it fell</li>
+ *   <li>PieceHeld: the piece that went into hold</li>
+ *   <li>PieceLocked: the piece and the position it was locked at, with its cells like above</li>
+ *   <li>RowsCleared: value has bit `row` set for every cleared row (rows as they were before clearing)</li>
+ *   <li>ScoreChanged: value is the new score</li>
+ *   <li>GameStateChanged: value is the new Board.GameState ordinal, see getGameState</li>
+ *   <li>GarbageAdded: value is the amount of rows, x the hole column</li>
+ * </ul>
+ * */
+public class BoardEvents {
+    private static final Tetromino.Type[] PIECES = Tetromino.Type.values();
+    private static final Type[] TYPES = Type.values();
+    private static final Board.GameState[] GAME_STATES = Board.GameState.values();
+    private static final int INITIAL_CAPACITY = 256; // A power of 2, far more than one tick can produce
+
+    public enum Type {
+        PieceSpawned,
+        PieceMoved,
+        PieceDropped,
+        PieceRotated,
+        PieceHeld,
+        PieceLocked,
+        RowsCleared,
+        ScoreChanged,
+        GameStateChanged,
+        GarbageAdded
+    }
+
+    public interface Listener {
+        /** Called on the thread that owns the board, with every event since the last batch */
+        void onEvents(BoardEvents events);
+    }
+
+    // One slot per event, the piece is the Tetromino.Type ordinal + 1 (0 for none).
+    // Block offsets are between -2 and 2, so the 4 of a piece are packed into one int,
+    // 3 bits for x + 2 and 3 bits for y + 2 per block.
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private byte[] pieces = new byte[INITIAL_CAPACITY];
+    private int[] shapes = new int[INITIAL_CAPACITY];
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int start;
+    private int size;
+    private long written; // Events pushed since the board was created, see mark
+
+    private final List<Listener> listeners = new ArrayList<>();
+    private boolean delivering;
+    private int batchSize; // Events in the batch being delivered
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /** `offsets` are the block offsets of the piece, or null if the event isn't about a piece */
+    void push(Type type, Tetromino.Type piece, Point[] offsets, int x, int y, int value) {
+        if (size == types.length) {
+            // The batch being handed out can't be emptied yet, so a listener that
+            // changes the board then gets more room instead of losing the event
+            if (delivering) grow();
+            else flush();
+        }
+
+        int slot = (start + size) & (types.length - 1);
+        types[slot] = (byte) type.ordinal();
+        pieces[slot] = (byte) (piece == null ? 0 : piece.ordinal() + 1);
+        int shape = 0;
+        if (offsets != null)
+            for (int block = 0; block < 4; block++)
+                shape |= ((offsets[block].x + 2) | (offsets[block].y + 2) << 3) << (block * 6);
+        shapes[slot] = shape;
+        xs[slot] = x;
+        ys[slot] = y;
+        values[slot] = value;
+        size++;
+        written++;
+    }
+
+    /** Position in the stream, to go back to with rewind */
+    long mark() {
+        return written;
+    }
+
+    /**
+     * Forgets the events pushed since the mark, as long as they weren't delivered yet.
+     * Used by Board.undo, so a search taking its placements back leaves no events behind.
+     * */
+    void rewind(long mark) {
+        int count = (int) Math.min(written - mark, size - batchSize);
+        size -= count;
+        written -= count;
+    }
+
+    /** Hands every recorded event to the listeners, then empties the buffer */
+    void flush() {
+        if (size == 0 || delivering) return;
+
+        // Events a listener causes while handling the batch go into the next one
+        batchSize = size;
+        delivering = true;
+        try {
+            for (Listener listener : listeners)
+                listener.onEvents(this);
+        } finally {
+            delivering = false;
+            start = (start + batchSize) & (types.length - 1);
+            size -= batchSize;
+            batchSize = 0;
+        }
+    }
+
+
+    // Reading a batch, index 0 is the oldest event
+
+    public int size() {
+        return batchSize;
+    }
+
+    public Type getType(int index) {
+        return TYPES[types[slot(index)]];
+    }
+
+    /** The piece the event is about, null if it isn't about a piece */
+    public Tetromino.Type getPiece(int index) {
+        int piece = pieces[slot(index)];
+        return piece == 0 ? null : PIECES[piece - 1];
+    }
+
+    public int getX(int index) {
+        return xs[slot(index)];
+    }
+
+    public int getY(int index) {
+        return ys[slot(index)];
+    }
+
+    /** Column of one of the 4 blocks (0 to 3) of the piece, for the events about a piece */
+    public int getBlockX(int index, int block) {
+        return xs[slot(index)] + (shapes[slot(index)] >>> (block * 6) & 7) - 2;
+    }
+
+    /** Row of one of the 4 blocks (0 to 3) of the piece, for the events about a piece */
+    public int getBlockY(int index, int block) {
+        return ys[slot(index)] + (shapes[slot(index)] >>> (block * 6 + 3) & 7) - 2;
+    }
+
+    public int getValue(int index) {
+        return values[slot(index)];
+    }
+
+    /** The new game state of a GameStateChanged event */
+    public Board.GameState getGameState(int index) {
+        return GAME_STATES[values[slot(index)]];
+    }
+
+    private int slot(int index) {
+        return (start + index) & (types.length - 1);
+    }
+
+    /** Doubles the buffer, the events keep their indices, so the batch being handed out stays readable */
+    private void grow() {
+        int capacity = types.length;
+        types = unwrap(types, new byte[capacity * 2], capacity);
+        pieces = unwrap(pieces, new byte[capacity * 2], capacity);
+        shapes = unwrap(shapes, new int[capacity * 2], capacity);
+        xs = unwrap(xs, new int[capacity * 2], capacity);
+        ys = unwrap(ys, new int[capacity * 2], capacity);
+        values = unwrap(values, new int[capacity * 2], capacity);
+        start = 0;
+    }
+
+    /** Copies the events in the ring `from` to the beginning of `to`, oldest first */
+    private <A> A unwrap(A from, A to, int capacity) {
+        int untilEnd = Math.min(size, capacity - start);
+        System.arraycopy(from, start, to, 0, untilEnd);
+        System.arraycopy(from, 0, to, untilEnd, size - untilEnd);
+        return to;
+    }
+}
@@ -0,0 +1,37 @@
+package game;
+
+/**
+ * An immutable copy of a Board's static blocks and stats, so a board being simulated
+ * on another thread can be rendered without reading it while it changes.
+ * */
+public class BoardSnapshot {
+    public final int width;
+    public final int height;
+    public final int score;
+    public final int linesCleared;
+    public final boolean alive;
+
+    // Row-major, 0 for an empty cell, otherwise the Tetromino.Type ordinal + 1
+    private final byte[] cells;
+
+    private BoardSnapshot(Board board) {
+        width = board.boardWidth;
+        height = board.boardHeight;
+        score = board.getScore();
+        linesCleared = board.getLinesCleared();
+        alive = board.getGameState() != Board.GameState.Stopped;
+
+        cells = new byte[width * height];
+        board.copyCells(cells); // Same encoding as the board itself
+    }
+
+    /** Must be called from the thread that owns the board */
+    public static BoardSnapshot of(Board board) {
+        return new BoardSnapshot(board);
+    }
+
+    /** 0 for an empty cell, otherwise the Tetromino.Type ordinal + 1 */
+    public int getCell(int x, int y) {
+        return cells[y * width + x];
+    }
+}
@@ -0,0 +1,140 @@
+package game;
+
+/**
+ * A simple computer player, used for the opponents of versus mode.
+ * It tries every rotation and column for the current piece (and the piece
+ * holding would bring out) and picks the one that leaves the best looking stack. <br>
+ * The weights are from the well known "El-Tetris" style evaluation:
+ * low stacks, no holes, a flat surface and cleared lines are good. <br>
+ * Placements are tried directly on the board with applyPlacement and taken back
+ * with undo, so thinking doesn't copy the board or allocate anything.
+ * Given a Book, it plays the book's placement instead wherever the book has one. <br>
+ * Not thread safe, every simulated board gets its own Bot.
+ * */
+public class Bot {
+    private static final double HEIGHT_WEIGHT = -0.510066;
+    static final double LINES_WEIGHT = 0.760666; // Also used by HintSearch
+    private static final double HOLES_WEIGHT = -0.35663;
+    private static final double BUMPINESS_WEIGHT = -0.184483;
+    private static final double GAME_OVER_SCORE = -1e9;
+
+    /** A placement, given like for Board.applyPlacement */
+    public record Placement(Tetromino.Type type, int rotation, int x) { }
+
+    /** Placements known to be good in some positions, e.g. what players chose there (see tools.PositionDatabase) */
+    public interface Book {
+        /** The placement for the board's current position, null if there is none */
+        Placement choose(Board board);
+    }
+
+    private PlacementUndo undo; // Reused for every placement tried
+    private Book book;
+    private boolean fromBook; // Whether the last `think` took the book's placement
+
+    // Result of the last `think`
+    private Tetromino.Type bestType;
+    private int bestRotation;
+    private int bestX;
+
+    /**
+     * Picks the best placement for the current piece of the board.
+     * Returns false if there is nothing to place.
+     * Read the result with getBestType(), getBestRotation() and getBestX().
+     * */
+    public boolean think(Board board) {
+        Tetromino piece = board.getCurrentPiece();
+        if (piece == null || board.getGameState() != Board.GameState.Playing) return false;
+        if (undo == null || undo.columnMasks.length != board.boardWidth) undo = new PlacementUndo(board.boardWidth);
+
+        fromBook = false;
+        Placement booked = book == null ? null : book.choose(board);
+        // Only if it's a placement the board accepts, a book can be from other rules
+        if (booked != null && board.applyPlacement(booked.type(), booked.rotation(), booked.x(), undo)) {
+            board.undo(undo);
+            fromBook = true;
+            bestType = booked.type();
+            bestRotation = booked.rotation();
+            bestX = booked.x();
+            return true;
+        }
+
+        double bestScore = Double.NEGATIVE_INFINITY;
+        Tetromino.Type held = board.getHeldPieceType();
+        Tetromino.Type swappedIn = held != null ? held : board.getNextPiece(0);
+
+        for (int candidate = 0; candidate < 2; candidate++) {
+            Tetromino.Type type = candidate == 0 ? piece.getType() : swappedIn;
+            if (candidate == 1 && type == piece.getType()) continue;
+
+            int rotations = type == Tetromino.Type.Square ? 1 : 4;
+            for (int rotation = 0; rotation < rotations; rotation++) {
+                for (int x = 0; x < board.boardWidth; x++) {
+                    // Also rejects the columns where the piece would stick out of the board
+                    if (!board.applyPlacement(type, rotation, x, undo)) continue;
+                    double score = evaluate(board, undo.getLinesCleared());
+                    board.undo(undo);
+
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestType = type;
+                        bestRotation = rotation;
+                        bestX = x;
+                    }
+                }
+            }
+        }
+
+        return bestScore != Double.NEGATIVE_INFINITY;
+    }
+
+    /** Places the piece chosen by the last `think` */
+    public void play(Board board) {
+        if (undo == null) undo = new PlacementUndo(board.boardWidth);
+        board.applyPlacement(bestType, bestRotation, bestX, undo);
+    }
+
+    /**
+     * Scores the stack of the board, right after a placement that cleared `linesCleared` lines.
+     * Also used by HintSearch, which adds up the lines of every placement it looks ahead.
+     * */
+    static double evaluate(Board board, int linesCleared) {
+        if (board.getGameState() == Board.GameState.Stopped) return GAME_OVER_SCORE;
+
+        int aggregateHeight = 0, holes = 0, bumpiness = 0, previousHeight = -1;
+        for (int col = 0; col < board.boardWidth; col++) {
+            // The highest block is the lowest set bit, since row 0 is the top
+            int mask = board.getColumnMask(col);
+            int columnHeight = mask == 0 ? 0 : board.boardHeight - Integer.numberOfTrailingZeros(mask);
+
+            aggregateHeight += columnHeight;
+            holes += columnHeight - Integer.bitCount(mask);
+            if (previousHeight >= 0) bumpiness += Math.abs(columnHeight - previousHeight);
+            previousHeight = columnHeight;
+        }
+
+        return HEIGHT_WEIGHT * aggregateHeight + LINES_WEIGHT * linesCleared +
+               HOLES_WEIGHT * holes + BUMPINESS_WEIGHT * bumpiness;
+    }
+
+    /** The book to play from, null for none */
+    public void setBook(Book book) {
+        this.book = book;
+    }
+
+    /** Whether the last `think` took its placement from the book */
+    public boolean isFromBook() {
+        return fromBook;
+    }
+
+    public Tetromino.Type getBestType() {
+        return bestType;
+    }
+
+    public int getBestRotation() {
+        return bestRotation;
+    }
+
+    public int getBestX() {
+        return bestX;
+    }
+}
@@ -0,0 +1,37 @@
+package game;
+
+/**
+ * The level curve: how fast pieces fall at each level, and how long they
+ * can stay on the ground before locking. Everything here is measured in frames,
+ * the board is updated 60 times a second (see Board.tick).
+ * */
+public class Gravity {
+    public static final int FRAMES_PER_SECOND = 60;
+    public static final long FRAME_NANOS = 1_000_000_000L / FRAMES_PER_SECOND;
+
+    public static final int LINES_PER_LEVEL = 10;
+    public static final int MAX_LEVEL = 20;
+
+    // Frames a piece can rest on the stack before it locks,
+    // and how many times moving or rotating it can restart that delay.
+    public static final int LOCK_DELAY_FRAMES = 30;
+    public static final int MAX_LOCK_RESETS = 15;
+
+    // Rows fallen per frame ("G") for levels 1 to 20. Level 1 is the old fixed
+    // 350ms per row, level 20 is 20G: the piece reaches the floor on the frame it spawns.
+    private static final double[] ROWS_PER_FRAME = {
+        1 / 21.0, 1 / 18.0, 1 / 15.0, 1 / 13.0, 1 / 11.0,
+        1 / 9.0, 1 / 7.0, 1 / 6.0, 1 / 5.0, 1 / 4.0,
+        1 / 3.0, 1 / 2.0, 1, 2, 3,
+        5, 8, 12, 16, 20
+    };
+
+    /** The level reached after clearing that many lines, starting at 1 */
+    public static int getLevel(int linesCleared) {
+        return Math.min(MAX_LEVEL, 1 + linesCleared / LINES_PER_LEVEL);
+    }
+
+    public static double getRowsPerFrame(int level) {
+        return ROWS_PER_FRAME[Math.max(1, Math.min(MAX_LEVEL, level)) - 1];
+    }
+}
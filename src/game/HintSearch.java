@@ -0,0 +1,191 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Finds the best placement for the current piece on a background thread, looking ahead
+ * at the next pieces: the hint shown by PlayAreaPanel. Uses the same evaluation as Bot,
+ * adding up the lines cleared along the way. <br> <br>
+ * The search is anytime: it searches 1 piece deep, then 2, ... (iterative deepening),
+ * and publishes the best placement every time a depth is done. An update (after every input
+ * and tick) hands it a new copy of the board and cancels the search running on the previous one,
+ * through a generation counter, unless the position is the same one that is still being searched,
+ * or whose hint is already MAX_DEPTH deep. Each search also stops after a frame's worth of time. <br>
+ * Nothing is lost by cancelling: every position searched goes into a transposition table
+ * (keyed by Board.positionHash, so moving the piece around doesn't change it), so the next
+ * search skips the depths and subtrees already done. This also carries over to the next
+ * piece, most of its search was already done as part of the previous one's. <br>
+ * Placements are tried on the copy with applyPlacement and taken back with undo,
+ * the search itself allocates nothing. Only placements that pass Board.canReachAtSpawn are tried,
+ * at every depth, since the pieces further ahead come out at the spawn too.
+ * */
+public class HintSearch {
+    // The current piece and the next 2, 4 deep (with holding) takes seconds rather than frames
+    public static final int MAX_DEPTH = 3;
+    private static final long SEARCH_BUDGET_NANOS = Gravity.FRAME_NANOS * 3 / 4;
+    private static final int TABLE_SIZE = 1 << 18; // Enough for a whole search at MAX_DEPTH
+    private static final Tetromino.Type[] TYPES = Tetromino.Type.values();
+
+    /**
+     * A placement (as in Board.applyPlacement) for the position with that positionHash. It can be
+     * reached from the spawn by turning, shifting at the spawn row and dropping, see Board.canReachAtSpawn.
+     * Placements that need a soft drop and a slide or spin under an overhang are never suggested.
+     * */
+    public record Hint(long positionHash, Tetromino.Type type, int rotation, int x, int depth) { }
+
+    private record Request(Board board, long generation, long deadline) { }
+
+    private final Thread worker;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+    private final Runnable listener;
+    private volatile Hint hint;
+    // Only used by the thread calling update, what it last handed to the worker
+    private long submittedHash;
+    private long submittedDeadline;
+    private boolean submitted;
+
+    // Only used by the worker. The transposition table: value of the position with that key
+    // searched `depth` pieces deep, and the best placement (type << 16 | rotation << 8 | x)
+    private final long[] tableKeys = new long[TABLE_SIZE];
+    private final double[] tableValues = new double[TABLE_SIZE];
+    private final byte[] tableDepths = new byte[TABLE_SIZE];
+    private final int[] tableMoves = new int[TABLE_SIZE];
+    private final PlacementUndo[] undos = new PlacementUndo[MAX_DEPTH];
+    private Request request; // Being searched
+    private boolean cancelled;
+
+    /** `listener` is called (on the worker thread) whenever a better hint is found */
+    public HintSearch(Runnable listener) {
+        this.listener = listener;
+        worker = new Thread(this::run, "hint-search");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Cancels the running search and starts over on a copy of the board, which is all
+     * this does on the calling thread (the one that owns the board). Does nothing if the
+     * board's position is still being searched, or its hint is already MAX_DEPTH deep.
+     * */
+    public void update(Board board) {
+        long positionHash = board.positionHash();
+        long now = System.nanoTime();
+        Hint latest = hint;
+        if (latest != null && latest.positionHash() == positionHash && latest.depth() == MAX_DEPTH) return;
+        if (submitted && submittedHash == positionHash && now < submittedDeadline) return;
+
+        long next = generation.incrementAndGet();
+        submitted = true;
+        submittedHash = positionHash;
+        submittedDeadline = now + SEARCH_BUDGET_NANOS;
+        pending.set(new Request(board.copy(), next, submittedDeadline));
+        LockSupport.unpark(worker);
+    }
+
+    /** Cancels the running search and forgets the hint, until the next update */
+    public void cancel() {
+        generation.incrementAndGet();
+        pending.set(null);
+        submitted = false;
+        hint = null;
+    }
+
+    /** The latest hint, if it is for the board's current position (null otherwise) */
+    public Hint getHint(Board board) {
+        Hint latest = hint;
+        return latest != null && latest.positionHash() == board.positionHash() ? latest : null;
+    }
+
+    private void run() {
+        while (true) {
+            request = pending.getAndSet(null);
+            if (request == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            searchRoot(request.board());
+        }
+    }
+
+
+    // Searching
+
+    private void searchRoot(Board board) {
+        if (board.getGameState() != Board.GameState.Playing) return;
+        if (undos[0] == null || undos[0].columnMasks.length != board.boardWidth)
+            for (int ply = 0; ply < MAX_DEPTH; ply++) undos[ply] = new PlacementUndo(board.boardWidth);
+
+        long positionHash = board.positionHash();
+        cancelled = false;
+        for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+            search(board, depth, 0);
+            if (cancelled) return;
+
+            // The depths the previous searches of this position already published come straight from the table
+            Hint previous = hint;
+            if (previous != null && previous.positionHash() == positionHash && previous.depth() >= depth) continue;
+
+            // The root is stored last, so it is in the table right after being searched
+            int slot = (int) positionHash & (TABLE_SIZE - 1);
+            int move = tableMoves[slot];
+            if (tableKeys[slot] != positionHash || move < 0) return; // Nothing fits, the game is about to be over
+
+            hint = new Hint(positionHash, TYPES[move >>> 16], move >>> 8 & 0xFF, move & 0xFF, depth);
+            listener.run();
+        }
+    }
+
+    /** The value of the board's position, looking `depth` pieces ahead */
+    private double search(Board board, int depth, int ply) {
+        long key = board.positionHash();
+        int slot = (int) key & (TABLE_SIZE - 1);
+        if (tableKeys[slot] == key && tableDepths[slot] >= depth) return tableValues[slot];
+
+        if (generation.get() != request.generation() || System.nanoTime() > request.deadline()) {
+            cancelled = true;
+            return 0;
+        }
+
+        PlacementUndo undo = undos[ply];
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int bestMove = -1;
+
+        Tetromino.Type current = board.getCurrentPiece().getType();
+        Tetromino.Type held = board.getHeldPieceType();
+        Tetromino.Type swappedIn = held != null ? held : board.getNextPiece(0);
+
+        for (int candidate = 0; candidate < 2; candidate++) {
+            Tetromino.Type type = candidate == 0 ? current : swappedIn;
+            if (candidate == 1 && type == current) continue;
+
+            int rotations = type == Tetromino.Type.Square ? 1 : 4;
+            for (int rotation = 0; rotation < rotations; rotation++) {
+                for (int x = 0; x < board.boardWidth; x++) {
+                    if (!board.canReachAtSpawn(type, rotation, x) || !board.applyPlacement(type, rotation, x, undo)) continue;
+
+                    int lines = undo.getLinesCleared();
+                    double value = depth == 1 || board.getGameState() != Board.GameState.Playing
+                        ? Bot.evaluate(board, lines)
+                        : Bot.LINES_WEIGHT * lines + search(board, depth - 1, ply + 1);
+                    board.undo(undo);
+                    if (cancelled) return 0;
+
+                    if (value > bestValue) {
+                        bestValue = value;
+                        bestMove = type.ordinal() << 16 | rotation << 8 | x;
+                    }
+                }
+            }
+        }
+
+        // Always replacing whatever was in the slot, the latest positions are the likeliest to come back
+        tableKeys[slot] = key;
+        tableValues[slot] = bestValue;
+        tableDepths[slot] = (byte) depth;
+        tableMoves[slot] = bestMove;
+        return bestValue;
+    }
+}
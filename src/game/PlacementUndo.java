@@ -0,0 +1,57 @@
+package game;
+
+import java.awt.*;
+
+/**
+ * Everything needed to take back one Board.applyPlacement: the cells the piece was
+ * written to, the rows it cleared (with their contents), and the queue, hold, score
+ * and piece state from before. <br>
+ * A record can be reused for any number of placements on boards of the same width,
+ * so a search can keep one per depth and never allocate while searching.
+ * Undos have to happen in the reverse order of the placements.
+ * */
+public class PlacementUndo {
+    // Cells written by the piece (row * width + col)
+    final int[] pieceCells = new int[4];
+
+    // Bit `row` is set for every row that was cleared (rows as they were before clearing),
+    // their contents are stored bottom row first, `width` bytes each.
+    int clearedRows;
+    final byte[] clearedCells;
+
+    // Board state from before the placement
+    final int[] columnMasks;
+    long rngState;
+    int bagStart;
+    int bagSize;
+    Tetromino.Type heldPiece;
+    boolean heldPieceLock;
+    int score;
+    int linesCleared;
+    Board.GameState gameState;
+    double gravityProgress;
+    int lockFrames;
+    int lockResets;
+
+    // The current piece from before the placement
+    Tetromino.Type pieceType;
+    Point[] pieceOffsets;
+    int pieceX;
+    int pieceY;
+
+    long eventMark; // See BoardEvents.rewind
+
+    public PlacementUndo(int boardWidth) {
+        clearedCells = new byte[4 * boardWidth]; // A piece can't fill more than 4 rows
+        columnMasks = new int[boardWidth];
+    }
+
+    /** Bitmask of the rows the placement cleared, bit `row` for row `row` */
+    public int getClearedRows() {
+        return clearedRows;
+    }
+
+    public int getLinesCleared() {
+        return Integer.bitCount(clearedRows);
+    }
+}
@@ -0,0 +1,317 @@
+package game;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A recorded game: the seed of its board and every input by frame, along with the result
+ * it claims (score, lines and Board.stateHash once it was over). Playing the inputs back
+ * on a new board with the same seed always ends in exactly the same state, which is how
+ * submitted scores are checked (see tools.ReplayVerifier). <br> <br>
+ * File layout (little endian): a HEADER_BYTES header, then one 8 byte record per input:
+ * the frame (int, the amount of ticks before it), the Action ordinal (short) and its
+ * argument (short). Inputs are in the order they were played. <br>
+ * Replays are only valid for the game rules they were recorded with, changing anything
+ * about Board's behavior needs a new VERSION.
+ * */
+public class Replay {
+    private static final long MAGIC = 0x3159414C50524B42L; // "BKRPLAY1"
+    private static final int VERSION = 2; // 2: soft drops no longer lock the piece right away
+    private static final int HEADER_BYTES = 64;
+    private static final int ACTION_BYTES = 8;
+    // Nobody plays a single game for 4 hours, anything longer is refused before simulating it
+    public static final long MAX_FRAMES = 4L * 60 * 60 * Gravity.FRAMES_PER_SECOND;
+
+    // Header fields
+    private static final int HEADER_WIDTH = 12;
+    private static final int HEADER_HEIGHT = 16;
+    private static final int HEADER_SEED = 24;
+    private static final int HEADER_FRAMES = 32;
+    private static final int HEADER_SCORE = 40;
+    private static final int HEADER_LINES = 44;
+    private static final int HEADER_STATE_HASH = 48;
+    private static final int HEADER_ACTION_COUNT = 56;
+
+    /** Every input that changes the board, the same calls the UI makes */
+    public enum Action {
+        RotateClockwise,
+        RotateCounterclockwise,
+        Hold,
+        MoveLeft,
+        MoveRight,
+        Shift, // Auto repeat, the argument is the amount of columns (negative for left)
+        SoftDrop,
+        HardDrop,
+        Pause; // Pauses or unpauses
+
+        private static final Action[] ACTIONS = values();
+
+        /**
+         * Plays the input on the board, ignored when the UI wouldn't allow it (moving while paused,
+         * unpausing a game that is over). Returns the columns moved for Shift, 0 otherwise.
+         * */
+        public int apply(Board board, int argument) {
+            Board.GameState state = board.getGameState();
+            if (this == Pause) {
+                if (state != Board.GameState.Stopped) board.pause();
+                return 0;
+            }
+            if (state != Board.GameState.Playing) return 0;
+
+            switch (this) {
+                case RotateClockwise -> board.rotatePieceClockWise();
+                case RotateCounterclockwise -> board.rotatePieceCounterClockwise();
+                case Hold -> board.switchWithHeldPiece();
+                case MoveLeft -> board.movePieceLeft();
+                case MoveRight -> board.movePieceRight();
+                case Shift -> {
+                    return board.shiftPiece(argument);
+                }
+                case SoftDrop -> board.movePieceDown(true);
+                case HardDrop -> board.dropPiece();
+            }
+            return 0;
+        }
+    }
+
+    public final int boardWidth;
+    public final int boardHeight;
+    public final long seed;
+    public final long frames; // Ticks the game ran for
+    public final int claimedScore;
+    public final int claimedLines;
+    public final long claimedStateHash;
+    private final int actionCount;
+    private final ByteBuffer actions;
+
+    private Replay(ByteBuffer header, ByteBuffer actions) {
+        boardWidth = header.getInt(HEADER_WIDTH);
+        boardHeight = header.getInt(HEADER_HEIGHT);
+        seed = header.getLong(HEADER_SEED);
+        frames = header.getLong(HEADER_FRAMES);
+        claimedScore = header.getInt(HEADER_SCORE);
+        claimedLines = header.getInt(HEADER_LINES);
+        claimedStateHash = header.getLong(HEADER_STATE_HASH);
+        actionCount = header.getInt(HEADER_ACTION_COUNT);
+        this.actions = actions;
+    }
+
+    /**
+     * Memory-maps a replay file, the inputs are read straight from the mapping while
+     * playing, so only the pages being played need to be in memory.
+     * */
+    public static Replay open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) throw new IOException(file + " is not a replay");
+
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION)
+                throw new IOException(file + " is not a replay (or from an other version)");
+            if (size != HEADER_BYTES + (long) buffer.getInt(HEADER_ACTION_COUNT) * ACTION_BYTES)
+                throw new IOException(file + " is truncated");
+
+            ByteBuffer actions = buffer.slice(HEADER_BYTES, (int) (size - HEADER_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+            return new Replay(buffer, actions);
+        }
+    }
+
+    /** Told about every piece a replay locks, see play(PlacementListener) */
+    public interface PlacementListener {
+        /**
+         * `before` is the board as it was when the piece came out (before holding, if the piece
+         * that got placed was swapped in), the placement is given like for Board.applyPlacement.
+         * */
+        void onPlacement(Board before, Tetromino.Type type, int rotation, int x) throws IOException;
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * Plays the whole game on a new board and returns it, to be compared with the claims.
+     * Throws if the replay can't have been recorded by the game (inputs out of order,
+     * unknown inputs, invalid board size, or too long).
+     * */
+    public Board play() throws IOException {
+        return play(null);
+    }
+
+    /**
+     * Same as play(), and tells the listener about every placement of the game, in order,
+     * so recorded games can be used like the bots' (see tools.PositionDatabaseBuilder).
+     * A placement is only its piece, rotation and column, a piece that was slid or spun
+     * under an overhang is reported the same as if it had been dropped straight down.
+     * */
+    public Board play(PlacementListener listener) throws IOException {
+        if (boardWidth < 4 || boardWidth > 64 || boardHeight < 4 || boardHeight > 30)
+            throw new IOException("Invalid board size " + boardWidth + "x" + boardHeight);
+        if (frames < 0 || frames > MAX_FRAMES)
+            throw new IOException("Invalid length of " + frames + " frames");
+
+        Board board = new Board(boardWidth, boardHeight, seed);
+        Placements placements = listener == null ? null : new Placements(board, listener);
+        int next = 0;
+        for (long frame = 0; frame <= frames; frame++) {
+            // Inputs of a frame are played before its tick
+            for (; next < actionCount && actions.getInt(next * ACTION_BYTES) == frame; next++) {
+                int record = next * ACTION_BYTES;
+                int action = actions.getShort(record + 4);
+                if (action < 0 || action >= Action.ACTIONS.length)
+                    throw new IOException("Unknown input " + action + " at frame " + frame);
+                Action.ACTIONS[action].apply(board, actions.getShort(record + 6));
+                if (placements != null) placements.report();
+            }
+
+            // Ticks don't change anything once the game is over
+            if (next == actionCount && board.getGameState() == Board.GameState.Stopped) break;
+            if (frame < frames) {
+                board.tick();
+                if (placements != null) placements.report();
+            }
+        }
+
+        if (next != actionCount)
+            throw new IOException("Input " + next + " is out of order or after the end");
+        return board;
+    }
+
+    /** Follows the events of a board being played back, for play(PlacementListener) */
+    private static class Placements implements BoardEvents.Listener {
+        private final Board board;
+        private final PlacementListener listener;
+        private Board spawned; // The board as the current piece came out
+
+        // The piece locked by the last batch, null if none was
+        private Tetromino.Type lockedType;
+        private int lockedRotation;
+        private int lockedX;
+
+        Placements(Board board, PlacementListener listener) {
+            this.board = board;
+            this.listener = listener;
+            spawned = board.copy();
+            board.addListener(this);
+        }
+
+        @Override
+        public void onEvents(BoardEvents events) {
+            for (int index = 0; index < events.size(); index++) {
+                if (events.getType(index) != BoardEvents.Type.PieceLocked) continue;
+                lockedType = events.getPiece(index);
+                lockedX = events.getX(index);
+                lockedRotation = rotationOf(events, index);
+            }
+        }
+
+        /** Called after every input and tick, none of them locks more than one piece */
+        void report() throws IOException {
+            board.flushEvents();
+            if (lockedType == null) return;
+
+            listener.onPlacement(spawned, lockedType, lockedRotation, lockedX);
+            lockedType = null;
+            spawned = board.copy(); // The next piece came out with the lock
+        }
+
+        /** The amount of clockwise rotations that give the piece of the event its shape */
+        private static int rotationOf(BoardEvents events, int index) {
+            Tetromino.Type type = events.getPiece(index);
+            for (int rotation = 0; rotation < 4; rotation++) {
+                Point[] offsets = Tetromino.getRotatedOffsets(type, rotation);
+                boolean matches = true;
+                for (int block = 0; block < 4 && matches; block++)
+                    matches = events.getBlockX(index, block) - events.getX(index) == offsets[block].x &&
+                              events.getBlockY(index, block) - events.getY(index) == offsets[block].y;
+                if (matches) return rotation;
+            }
+            throw new IllegalStateException(type + " locked in a shape none of its rotations has");
+        }
+    }
+
+
+    /**
+     * Records a game being played: every input goes through perform, and endFrame is
+     * called after every tick. Saved once the game is over, with the board's result as
+     * the claims. Grows as needed, 8 bytes per input.
+     * */
+    public static class Recorder {
+        private final int boardWidth;
+        private final int boardHeight;
+        private final long seed;
+
+        private int frame;
+        private int count;
+        private int[] actionFrames = new int[1024];
+        private short[] actions = new short[1024];
+        private short[] arguments = new short[1024];
+
+        /** `seed` is the seed the board was created with */
+        public Recorder(Board board, long seed) {
+            this.boardWidth = board.boardWidth;
+            this.boardHeight = board.boardHeight;
+            this.seed = seed;
+        }
+
+        /** Plays the input on the board (see Action.apply) and records it */
+        public int perform(Board board, Action action, int argument) {
+            if (count == actions.length) {
+                actionFrames = Arrays.copyOf(actionFrames, count * 2);
+                actions = Arrays.copyOf(actions, count * 2);
+                arguments = Arrays.copyOf(arguments, count * 2);
+            }
+
+            actionFrames[count] = frame;
+            actions[count] = (short) action.ordinal();
+            arguments[count] = (short) argument;
+            count++;
+            return action.apply(board, argument);
+        }
+
+        /** Called after every tick of the board */
+        public void endFrame() {
+            frame++;
+        }
+
+        /**
+         * Writes the replay, claiming the board's current score, lines and state.
+         * Never overwrites a replay, throws FileAlreadyExistsException if the file exists.
+         * */
+        public void save(Path file, Board board) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * ACTION_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(0, MAGIC);
+            buffer.putInt(8, VERSION);
+            buffer.putInt(HEADER_WIDTH, boardWidth);
+            buffer.putInt(HEADER_HEIGHT, boardHeight);
+            buffer.putLong(HEADER_SEED, seed);
+            buffer.putLong(HEADER_FRAMES, frame);
+            buffer.putInt(HEADER_SCORE, board.getScore());
+            buffer.putInt(HEADER_LINES, board.getLinesCleared());
+            buffer.putLong(HEADER_STATE_HASH, board.stateHash());
+            buffer.putInt(HEADER_ACTION_COUNT, count);
+
+            for (int index = 0; index < count; index++) {
+                int record = HEADER_BYTES + index * ACTION_BYTES;
+                buffer.putInt(record, actionFrames[index]);
+                buffer.putShort(record + 4, actions[index]);
+                buffer.putShort(record + 6, arguments[index]);
+            }
+
+            try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package game;
+
+import java.util.Locale;
+
+/**
+ * Live statistics of one game: pieces per second, actions per minute, line clears by type,
+ * stack height, holes and time spent near the top. Follows the board's events (add it as a
+ * listener), actions are counted by the input code with recordAction, and the time by
+ * calling onFrame every played frame. <br>
+ * Everything is a primitive field, and the recent rates come from fixed rings of per
+ * second counts, so keeping track allocates nothing. Only used on the board's thread.
+ * */
+public class SessionStats implements BoardEvents.Listener {
+    public static final int WINDOW_SECONDS = 10; // The recent rates are over this many seconds
+    private static final int DANGER_ROWS = 4; // The stack is near the top within this many rows of it
+
+    private final Board board;
+
+    private long frames; // Played frames, pauses don't count
+    private long pieces;
+    private long actions;
+    private final long[] clears = new long[5]; // By the amount of rows cleared at once, [1] being singles
+    private int stackHeight; // Rows from the floor to the highest block
+    private int holes; // Empty cells with a block somewhere above them
+    private long stackHeightSum; // Sampled every time a piece locks, for the averages
+    private long holesSum;
+    private long dangerFrames;
+
+    // Counts of the last WINDOW_SECONDS seconds, the slot of second `s` is `s % WINDOW_SECONDS`
+    private final int[] windowPieces = new int[WINDOW_SECONDS];
+    private final int[] windowActions = new int[WINDOW_SECONDS];
+    private int windowPiecesSum;
+    private int windowActionsSum;
+    private long currentSecond;
+
+    public SessionStats(Board board) {
+        this.board = board;
+    }
+
+    /** Called by the input code for every key press that does something to the piece */
+    public void recordAction() {
+        actions++;
+        windowActions[(int) (currentSecond % WINDOW_SECONDS)]++;
+        windowActionsSum++;
+    }
+
+    /** Called once per played frame, after the board was ticked */
+    public void onFrame() {
+        frames++;
+        if (stackHeight > board.boardHeight - DANGER_ROWS) dangerFrames++;
+
+        long second = frames / Gravity.FRAMES_PER_SECOND;
+        if (second == currentSecond) return;
+
+        // A new second reuses the slot of the one that just left the window
+        currentSecond = second;
+        int slot = (int) (second % WINDOW_SECONDS);
+        windowPiecesSum -= windowPieces[slot];
+        windowActionsSum -= windowActions[slot];
+        windowPieces[slot] = 0;
+        windowActions[slot] = 0;
+    }
+
+    @Override
+    public void onEvents(BoardEvents events) {
+        int locked = 0;
+        boolean stackChanged = false;
+
+        for (int index = 0; index < events.size(); index++) {
+            switch (events.getType(index)) {
+                case PieceLocked -> {
+                    locked++;
+                    stackChanged = true;
+                }
+                case RowsCleared -> {
+                    clears[Math.min(Integer.bitCount(events.getValue(index)), 4)]++;
+                    stackChanged = true;
+                }
+                case GarbageAdded -> stackChanged = true;
+            }
+        }
+
+        // Rows are cleared right after the lock, so the stack is only measured once the batch is done
+        if (stackChanged) measureStack();
+        if (locked == 0) return;
+
+        pieces += locked;
+        windowPieces[(int) (currentSecond % WINDOW_SECONDS)] += locked;
+        windowPiecesSum += locked;
+        stackHeightSum += (long) stackHeight * locked;
+        holesSum += (long) holes * locked;
+    }
+
+    /** Straight from the column masks, a few bit operations per column */
+    private void measureStack() {
+        int height = 0;
+        int holeCount = 0;
+        for (int col = 0; col < board.boardWidth; col++) {
+            int mask = board.getColumnMask(col);
+            if (mask == 0) continue;
+
+            // Row 0 is the top, so the lowest set bit is the highest block of the column
+            int columnHeight = board.boardHeight - Integer.numberOfTrailingZeros(mask);
+            height = Math.max(height, columnHeight);
+            holeCount += columnHeight - Integer.bitCount(mask);
+        }
+        stackHeight = height;
+        holes = holeCount;
+    }
+
+
+    // Getters
+
+    public double getSeconds() {
+        return (double) frames / Gravity.FRAMES_PER_SECOND;
+    }
+
+    /** Over the last WINDOW_SECONDS seconds (or less, at the start of a game) */
+    public double getPiecesPerSecond() {
+        return windowPiecesSum / getWindowSeconds();
+    }
+
+    /** Over the last WINDOW_SECONDS seconds (or less, at the start of a game) */
+    public double getActionsPerMinute() {
+        return windowActionsSum * 60 / getWindowSeconds();
+    }
+
+    private double getWindowSeconds() {
+        // At least a second, so the very first piece isn't counted as a huge rate
+        return Math.max(1, Math.min(getSeconds(), WINDOW_SECONDS));
+    }
+
+    public long getPieces() {
+        return pieces;
+    }
+
+    /** How many times `rows` rows (1 to 4) were cleared at once */
+    public long getClears(int rows) {
+        return clears[rows];
+    }
+
+    public int getStackHeight() {
+        return stackHeight;
+    }
+
+    public int getHoles() {
+        return holes;
+    }
+
+    public double getDangerSeconds() {
+        return (double) dangerFrames / Gravity.FRAMES_PER_SECOND;
+    }
+
+    /** The summary of the game so far, as it gets written to the stats log */
+    public Summary summarize() {
+        return new Summary(
+            System.currentTimeMillis(), getSeconds(), board.getScore(), board.getLinesCleared(),
+            pieces, actions, clears[1], clears[2], clears[3], clears[4],
+            pieces == 0 ? 0 : (double) stackHeightSum / pieces,
+            pieces == 0 ? 0 : (double) holesSum / pieces,
+            getDangerSeconds()
+        );
+    }
+
+
+    /**
+     * One finished game, a line of the stats log. The averages of the stack
+     * height and holes are over every lock, `endTime` is in epoch milliseconds.
+     * */
+    public record Summary(
+        long endTime, double seconds, int score, int lines, long pieces, long actions,
+        long singles, long doubles, long triples, long tetrises,
+        double averageStackHeight, double averageHoles, double dangerSeconds
+    ) {
+        public double piecesPerSecond() {
+            return seconds == 0 ? 0 : pieces / seconds;
+        }
+
+        public double actionsPerMinute() {
+            return seconds == 0 ? 0 : actions * 60 / seconds;
+        }
+
+        /** Comma separated, in the order of the fields */
+        public String toLogLine() {
+            return String.format(
+                Locale.ROOT, "%d,%.2f,%d,%d,%d,%d,%d,%d,%d,%d,%.2f,%.2f,%.2f",
+                endTime, seconds, score, lines, pieces, actions,
+                singles, doubles, triples, tetrises, averageStackHeight, averageHoles, dangerSeconds
+            );
+        }
+
+        /** The summary of a stats log line, or null if the line isn't one */
+        public static Summary fromLogLine(String line) {
+            String[] fields = line.split(",");
+            if (fields.length != 13) return null;
+
+            try {
+                return new Summary(
+                    Long.parseLong(fields[0]), Double.parseDouble(fields[1]),
+                    Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                    Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                    Long.parseLong(fields[6]), Long.parseLong(fields[7]),
+                    Long.parseLong(fields[8]), Long.parseLong(fields[9]),
+                    Double.parseDouble(fields[10]), Double.parseDouble(fields[11]),
+                    Double.parseDouble(fields[12])
+                );
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -10,7 +10,7 @@ import java.awt.*;
  * T
  * */
 public class Tetromino {
-    private final Type type;
+    private Type type;
 
     // The x and y location of this piece
     // relative to the grid
@@ -35,7 +35,28 @@ public class Tetromino {
         JShape, // L Shape facing Left
         LShape, // L Shape facing Right (basically a mirror of J)
         SSkew, // Stairs going up to the right
-        ZSkew // Stairs going up to the left (mirror of S)
+        ZSkew, // Stairs going up to the left (mirror of S)
+        Garbage // Not a tetromino, the blocks of garbage rows sent by opponents in versus mode
+    }
+
+    /** Every type that is an actual tetromino (which is every type except Garbage) */
+    public static final Type[] PIECE_TYPES = {
+        Type.Straight, Type.Square, Type.TShape, Type.JShape,
+        Type.LShape, Type.SSkew, Type.ZSkew
+    };
+
+    // The block offsets of every piece type after being rotated clockwise 0 to 3 times.
+    // [type ordinal][rotation][block]
+    private static final Point[][][] ROTATED_OFFSETS = new Point[PIECE_TYPES.length][4][];
+
+    static {
+        for (Type type : PIECE_TYPES) {
+            Tetromino piece = new Tetromino(type);
+            for (int rotation = 0; rotation < 4; rotation++) {
+                ROTATED_OFFSETS[type.ordinal()][rotation] = piece.blocksOffsets;
+                piece.setBlocksOffsets(piece.rotate(true));
+            }
+        }
     }
 
     public Tetromino(Type type) {
@@ -55,9 +76,18 @@ public class Tetromino {
             case LShape   -> new Point[] { new Point(1,  -1), new Point(0, -1), new Point(0,  0), new Point(0,  1) }; // L
             case SSkew    -> new Point[] { new Point(0,  -1), new Point(0,  0), new Point(1,  0), new Point(1,  1) }; // Stairs going up to the right
             case ZSkew    -> new Point[] { new Point(0, - 1), new Point(0,  0), new Point(-1, 0), new Point(-1, 1) }; // Stairs going up to the left
+            case Garbage  -> throw new IllegalArgumentException("Garbage blocks are not a tetromino");
         };
     }
 
+    /**
+     * Block offsets of that type after `rotation` clockwise rotations from its initial offsets.
+     * The returned points are shared, do not modify them.
+     * */
+    public static Point[] getRotatedOffsets(Type type, int rotation) {
+        return ROTATED_OFFSETS[type.ordinal()][rotation & 3];
+    }
+
     /** Returns an empty 4 Points array (For each block of a tetromino) */
     public static Point[] getEmptyPointArray() {
         return new Point[] { new Point(), new Point(), new Point(), new Point() };
@@ -121,6 +151,17 @@ public class Tetromino {
     }
 
 
+    /**
+     * Turns this into a different piece, without allocating a new one.
+     * Used by Board for its current piece, the offsets are not copied.
+     * */
+    void reset(Type type, Point[] blocksOffsets, int x, int y) {
+        this.type = type;
+        this.blocksOffsets = blocksOffsets;
+        setCurrentPosition(x, y);
+    }
+
+
     // Setters
 
     public void setBlocksOffsets(Point[] blocksOffsets) {
@@ -135,6 +176,10 @@ public class Tetromino {
 
     // Getters
 
+    public Point[] getBlocksOffsets() {
+        return blocksOffsets;
+    }
+
     public Point[] getBlockCoordinates() {
         return addOffsetsAndPosition(blocksOffsets, currentPosition);
     }
@@ -0,0 +1,279 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Versus mode: the human's Board against a crowd of Bot controlled boards.
+ * Cleared lines are sent as garbage rows to a random opponent that is still alive. <br> <br>
+ * Opponents are simulated on a pool of worker threads at a fixed tick rate. The human's
+ * board is never touched by those threads; it only exchanges garbage through atomic
+ * counters, and should be updated from the Swing UI Thread with `updateHuman`.
+ * Each opponent publishes a BoardSnapshot after it changes, which is what gets rendered. <br>
+ * The match follows the human's game through its events: the opponents pause along with
+ * it, and the match stops for good once the human's game is over.
+ * */
+public class VersusMatch {
+    public static final int DEFAULT_OPPONENTS = 99;
+    private static final long TICK_NANOS = 1_000_000_000L / 60;
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    // How many garbage rows are sent for clearing 0, 1, 2, 3 or 4 lines at once
+    private static final int[] GARBAGE_FOR_LINES = { 0, 0, 1, 2, 4 };
+
+    private final Board human;
+    private final Opponent[] opponents;
+    private final AtomicInteger opponentsAlive;
+    private final AtomicInteger humanIncomingGarbage = new AtomicInteger();
+    private int humanLinesSeen; // Only used on the Swing UI Thread
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService clock;
+    private ScheduledFuture<?> ticks; // Null while paused, only used on the Swing UI Thread
+    private final int workerCount;
+    private volatile Runnable tickListener;
+
+    // Time spent simulating the opponents, to get the average cost of a single board
+    private final LongAdder simulationNanos = new LongAdder();
+    private final LongAdder simulationSteps = new LongAdder();
+
+    /** An opponent's board is only ever touched by one worker at a time */
+    private static class Opponent {
+        final Board board;
+        final Bot bot = new Bot();
+        final double piecesPerTick; // How fast this opponent plays
+        final AtomicInteger incomingGarbage = new AtomicInteger();
+        double progress; // Placements are made once this reaches 1
+        int linesSeen;
+        volatile boolean alive = true; // Read by other workers when picking a garbage target
+        volatile BoardSnapshot snapshot;
+
+        Opponent(Board board, double piecesPerTick) {
+            this.board = board;
+            this.piecesPerTick = piecesPerTick;
+            this.snapshot = BoardSnapshot.of(board);
+        }
+    }
+
+    public VersusMatch(Board human, int opponentCount) {
+        this.human = human;
+        this.opponents = new Opponent[opponentCount];
+        this.opponentsAlive = new AtomicInteger(opponentCount);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int index = 0; index < opponentCount; index++) {
+            // Somewhere between 1 and 2.5 pieces per second
+            double piecesPerSecond = 1 + random.nextDouble() * 1.5;
+            opponents[index] = new Opponent(
+                new Board(human.boardWidth, human.boardHeight, random.nextLong()),
+                piecesPerSecond * TICK_NANOS / 1e9
+            );
+        }
+
+        workerCount = Runtime.getRuntime().availableProcessors();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "versus-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "versus-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Starts simulating the opponents, from then on they follow the human's game state */
+    public void start() {
+        human.addListener(this::followHuman);
+        resume();
+    }
+
+    private void resume() {
+        if (ticks == null && !clock.isShutdown())
+            ticks = clock.scheduleAtFixedRate(this::tick, 0, TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /** A tick that is already running still finishes */
+    private void pause() {
+        if (ticks == null) return;
+        ticks.cancel(false);
+        ticks = null;
+    }
+
+    /** Called on the Swing UI Thread with the human board's events */
+    private void followHuman(BoardEvents events) {
+        for (int index = 0; index < events.size(); index++) {
+            if (events.getType(index) != BoardEvents.Type.GameStateChanged) continue;
+
+            switch (events.getGameState(index)) {
+                case Playing -> resume();
+                case Paused -> pause();
+                case Stopped -> stop();
+            }
+        }
+    }
+
+    /**
+     * Stops the simulation threads, the match can't be started again.
+     * A tick that is already running is waited for, so the tick listener
+     * is never called anymore once this returns.
+     * */
+    public void stop() {
+        clock.shutdownNow();
+        workers.shutdownNow();
+        try {
+            if (!clock.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                System.err.println("Versus simulation didn't stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called on the simulation clock thread after every tick, once every opponent
+     * snapshot is published (the minimap renderer uses this).
+     * */
+    public void setTickListener(Runnable tickListener) {
+        this.tickListener = tickListener;
+    }
+
+    private void tick() {
+        runParallel(opponents.length, this::stepOpponent);
+
+        // Stopped while simulating, the listener may already be gone
+        Runnable listener = tickListener;
+        if (listener != null && !clock.isShutdown()) listener.run();
+    }
+
+    /**
+     * Runs task(0) to task(count - 1) split across the worker threads,
+     * and waits for all of them to finish.
+     * */
+    public void runParallel(int count, IntConsumer task) {
+        int chunks = Math.min(workerCount, count);
+        List<Future<?>> futures = new ArrayList<>(chunks);
+
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = count * chunk / chunks;
+            int to = count * (chunk + 1) / chunks;
+            futures.add(workers.submit(() -> {
+                for (int index = from; index < to; index++) task.accept(index);
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) future.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Versus simulation failed", e.getCause());
+
+        } catch (RejectedExecutionException | CancellationException e) {
+            // The match was stopped while this was running
+        }
+    }
+
+    private void stepOpponent(int index) {
+        Opponent opponent = opponents[index];
+        if (!opponent.alive) return;
+
+        long startNanos = System.nanoTime();
+        Board board = opponent.board;
+        boolean changed = false;
+
+        int garbage = opponent.incomingGarbage.getAndSet(0);
+        if (garbage > 0) {
+            board.addGarbageRows(garbage, ThreadLocalRandom.current().nextInt(board.boardWidth));
+            changed = true;
+        }
+
+        opponent.progress += opponent.piecesPerTick;
+        while (opponent.progress >= 1 && board.getGameState() == Board.GameState.Playing) {
+            opponent.progress -= 1;
+            if (opponent.bot.think(board)) opponent.bot.play(board);
+
+            int lines = board.getLinesCleared() - opponent.linesSeen;
+            opponent.linesSeen = board.getLinesCleared();
+            sendGarbage(index, lines);
+            changed = true;
+        }
+
+        if (board.getGameState() == Board.GameState.Stopped) {
+            opponent.alive = false;
+            opponentsAlive.decrementAndGet();
+        }
+
+        if (changed) opponent.snapshot = BoardSnapshot.of(board);
+
+        simulationNanos.add(System.nanoTime() - startNanos);
+        simulationSteps.increment();
+    }
+
+    /**
+     * Sends the garbage for clearing that many lines to a random opponent (or the human).
+     * `sender` is the index of the opponent that cleared them, or -1 for the human.
+     * */
+    private void sendGarbage(int sender, int lines) {
+        int rows = GARBAGE_FOR_LINES[Math.min(lines, 4)];
+        if (rows == 0) return;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // A few tries at picking someone that is still alive is plenty
+        for (int attempt = 0; attempt < 8; attempt++) {
+            int target = random.nextInt(-1, opponents.length);
+            if (target == sender) continue;
+
+            if (target == -1) {
+                humanIncomingGarbage.addAndGet(rows);
+                return;
+            }
+            if (opponents[target].alive) {
+                opponents[target].incomingGarbage.addAndGet(rows);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called on the Swing UI Thread after the human's board changed,
+     * sends the garbage for the lines the human cleared and receives the pending garbage.
+     * */
+    public void updateHuman() {
+        int lines = human.getLinesCleared() - humanLinesSeen;
+        humanLinesSeen = human.getLinesCleared();
+        sendGarbage(-1, lines);
+
+        int garbage = humanIncomingGarbage.getAndSet(0);
+        if (garbage > 0)
+            human.addGarbageRows(garbage, ThreadLocalRandom.current().nextInt(human.boardWidth));
+    }
+
+
+    // Getters
+
+    public int getOpponentCount() {
+        return opponents.length;
+    }
+
+    public int getOpponentsAlive() {
+        return opponentsAlive.get();
+    }
+
+    /** The latest published state of that opponent, safe to call from any thread */
+    public BoardSnapshot getOpponentSnapshot(int index) {
+        return opponents[index].snapshot;
+    }
+
+    /** Average time it took to simulate one opponent board for one tick, in nanoseconds */
+    public double getAverageSimulationNanos() {
+        long steps = simulationSteps.sum();
+        return steps == 0 ? 0 : (double) simulationNanos.sum() / steps;
+    }
+}
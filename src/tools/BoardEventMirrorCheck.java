@@ -0,0 +1,193 @@
+package tools;
+
+import game.Board;
+import game.BoardEvents;
+import game.Bot;
+import game.PlacementUndo;
+import game.Tetromino;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that a Board's events (see BoardEvents) tell everything that happened to it:
+ * a mirror rebuilt only from the events (the cells, the current piece, hold, score and
+ * game state) has to match the real board after every tick of random games. The games use
+ * every input, garbage, pausing, and placements that are undone within the same tick,
+ * whose events must be forgotten. Now and then a second listener floods the board with
+ * inputs while it is handed a batch, more than the event buffer holds, none may get lost. <br>
+ * java -cp out tools.BoardEventMirrorCheck [games] [seed] <br>
+ * Exits with 1 on the first mismatch, or if some type of event or a flood never came up (see CheckRunner).
+ * */
+public class BoardEventMirrorCheck implements BoardEvents.Listener {
+    private static final int DEFAULT_GAMES = 200;
+    private static final int STEPS_PER_GAME = 3000;
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 22;
+    private static final int FLOOD_INPUTS = 400; // BoardEvents starts with room for 256
+
+    // The board as told by the events
+    private final byte[] cells = new byte[WIDTH * HEIGHT];
+    private final Point[] pieceCells = new Point[4];
+    private Tetromino.Type pieceType;
+    private Tetromino.Type heldType;
+    private int score;
+    private Board.GameState gameState = Board.GameState.Playing;
+    private boolean flood; // Whether the flooding listener goes off on the next batch
+
+    // Over every game
+    private final long[] eventCounts = new long[BoardEvents.Type.values().length];
+    private long gameOvers;
+    private int largestBatch;
+
+    public static void main(String[] args) throws Exception {
+        BoardEventMirrorCheck mirror = new BoardEventMirrorCheck();
+        int games = CheckRunner.run(args, DEFAULT_GAMES, 7, (game, seed) -> mirror.playGame(seed));
+
+        System.out.printf("%d games (%d over), the mirror matched after every tick, batches of up to %d events%n",
+            games, mirror.gameOvers, mirror.largestBatch);
+        boolean covered = true;
+        for (BoardEvents.Type type : BoardEvents.Type.values()) {
+            System.out.printf("  %-16s %d%n", type, mirror.eventCounts[type.ordinal()]);
+            covered &= mirror.eventCounts[type.ordinal()] > 0;
+        }
+        CheckRunner.requireCovered(covered, "Not every type of event came up");
+        CheckRunner.requireCovered(mirror.largestBatch > 256, "No flood outgrew the event buffer");
+    }
+
+    /** Returns what went wrong, or null */
+    private String playGame(long seed) {
+        Random random = new Random(seed);
+        Board board = new Board(WIDTH, HEIGHT, random.nextLong());
+        // The first piece spawns before anyone can listen
+        Arrays.fill(cells, (byte) 0);
+        pieceType = board.getCurrentPiece().getType();
+        System.arraycopy(board.getCurrentPiece().getBlockCoordinates(), 0, pieceCells, 0, 4);
+        heldType = null;
+        score = 0;
+        gameState = Board.GameState.Playing;
+        board.addListener(this);
+
+        // Its inputs go into the buffer while the batch before them is still being handed out
+        flood = false;
+        board.addListener(batch -> {
+            if (!flood || board.getGameState() != Board.GameState.Playing) return;
+            flood = false;
+            for (int input = 0; input < FLOOD_INPUTS; input++) {
+                if (input % 2 == 0) board.movePieceLeft();
+                else board.movePieceRight();
+            }
+        });
+
+        Bot bot = new Bot();
+        byte[] realCells = new byte[WIDTH * HEIGHT];
+
+        for (int step = 0; step < STEPS_PER_GAME && board.getGameState() != Board.GameState.Stopped; step++) {
+            switch (random.nextInt(14)) {
+                case 0 -> board.rotatePieceClockWise();
+                case 1 -> board.rotatePieceCounterClockwise();
+                case 2 -> board.movePieceLeft();
+                case 3 -> board.movePieceRight();
+                case 4 -> board.movePieceDown(true);
+                case 5 -> board.dropPiece();
+                case 6 -> board.switchWithHeldPiece();
+                case 7 -> board.shiftPiece(random.nextInt(9) - 4);
+                case 8 -> {
+                    if (bot.think(board)) bot.play(board);
+                }
+                case 9 -> {
+                    // A search: its events must never reach the listeners
+                    PlacementUndo undo = board.applyPlacement(
+                        board.getCurrentPiece().getType(), random.nextInt(4), random.nextInt(WIDTH)
+                    );
+                    if (undo != null) board.undo(undo);
+                }
+                case 10 -> {
+                    if (random.nextInt(10) == 0) board.pause();
+                }
+                case 11 -> {
+                    if (board.getGameState() == Board.GameState.Paused) board.pause();
+                }
+                case 12 -> flood = random.nextInt(20) == 0;
+                default -> { }
+            }
+            if (random.nextInt(100) == 0) board.addGarbageRows(1 + random.nextInt(2), random.nextInt(WIDTH));
+            board.tick();
+            // A flood during the tick's batch is only handed out with the next one
+            board.flushEvents();
+
+            board.copyCells(realCells);
+            if (!Arrays.equals(realCells, cells))
+                return "step " + step + ", cells differ\n" + drawCells(realCells) + "\nmirror:\n" + drawCells(cells);
+            if (score != board.getScore())
+                return "step " + step + ", score " + board.getScore() + " but the events said " + score;
+            if (gameState != board.getGameState())
+                return "step " + step + ", game state " + board.getGameState() + " but the events said " + gameState;
+            if (heldType != board.getHeldPieceType())
+                return "step " + step + ", held " + board.getHeldPieceType() + " but the events said " + heldType;
+
+            // After a game over the piece that couldn't spawn is left wherever
+            Tetromino piece = board.getCurrentPiece();
+            if (gameState != Board.GameState.Stopped
+                && (piece.getType() != pieceType || !Arrays.equals(piece.getBlockCoordinates(), pieceCells)))
+                return "step " + step + ", current piece " + piece.getType() + Arrays.toString(piece.getBlockCoordinates()) +
+                    " but the events said " + pieceType + Arrays.toString(pieceCells);
+        }
+        if (gameState == Board.GameState.Stopped) gameOvers++;
+        return null;
+    }
+
+    @Override
+    public void onEvents(BoardEvents batch) {
+        largestBatch = Math.max(largestBatch, batch.size());
+        for (int index = 0; index < batch.size(); index++) {
+            eventCounts[batch.getType(index).ordinal()]++;
+            switch (batch.getType(index)) {
+                case PieceSpawned, PieceMoved, PieceRotated, PieceDropped -> {
+                    pieceType = batch.getPiece(index);
+                    for (int block = 0; block < 4; block++)
+                        pieceCells[block] = new Point(batch.getBlockX(index, block), batch.getBlockY(index, block));
+                }
+                case PieceHeld -> heldType = batch.getPiece(index);
+                case PieceLocked -> {
+                    byte type = (byte) (batch.getPiece(index).ordinal() + 1);
+                    for (int block = 0; block < 4; block++) {
+                        int y = batch.getBlockY(index, block);
+                        if (y >= 0) cells[y * WIDTH + batch.getBlockX(index, block)] = type;
+                    }
+                }
+                case RowsCleared -> {
+                    // Every row that stays falls by the amount of cleared rows below it
+                    int rows = batch.getValue(index);
+                    int destination = HEIGHT - 1;
+                    for (int row = HEIGHT - 1; row >= 0; row--) {
+                        if ((rows >>> row & 1) != 0) continue;
+                        System.arraycopy(cells, row * WIDTH, cells, destination * WIDTH, WIDTH);
+                        destination--;
+                    }
+                    Arrays.fill(cells, 0, (destination + 1) * WIDTH, (byte) 0);
+                }
+                case GarbageAdded -> {
+                    int rows = batch.getValue(index);
+                    System.arraycopy(cells, rows * WIDTH, cells, 0, (HEIGHT - rows) * WIDTH);
+                    byte garbage = (byte) (Tetromino.Type.Garbage.ordinal() + 1);
+                    for (int row = HEIGHT - rows; row < HEIGHT; row++)
+                        for (int col = 0; col < WIDTH; col++)
+                            cells[row * WIDTH + col] = col == batch.getX(index) ? 0 : garbage;
+                }
+                case ScoreChanged -> score = batch.getValue(index);
+                case GameStateChanged -> gameState = batch.getGameState(index);
+            }
+        }
+    }
+
+    private static String drawCells(byte[] grid) {
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) text.append(grid[row * WIDTH + col]);
+            if (row < HEIGHT - 1) text.append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package tools;
+
+import game.Board;
+
+/**
+ * Measures how much heap a resident Board takes, by keeping a lot of them
+ * alive at once and comparing the used heap before and after.
+ * Run with a big enough heap, for example: java -Xmx2g -cp out tools.BoardMemoryBenchmark [boards]
+ * */
+public class BoardMemoryBenchmark {
+    private static final int DEFAULT_BOARDS = 100_000;
+    private static final int PIECES_PER_BOARD = 6; // So the boards aren't all empty
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BOARDS;
+
+        long before = usedHeap();
+        Board[] boards = new Board[count];
+        for (int index = 0; index < count; index++) {
+            Board board = new Board(10, 22, index);
+            for (int piece = 0; piece < PIECES_PER_BOARD; piece++) board.dropPiece();
+            boards[index] = board;
+        }
+        long after = usedHeap();
+
+        // The array of references itself isn't part of a board
+        long arrayBytes = 16 + 4L * count;
+        System.out.printf(
+            "%d boards resident: %.1f MB, %d bytes per board%n",
+            count, (after - before) / 1e6, (after - before - arrayBytes) / count
+        );
+
+        // Keep the boards reachable until after the measurement
+        if (boards[count - 1].getScore() < 0) System.out.println();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int attempt = 0; attempt < 3; attempt++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,40 @@
+package tools;
+
+import java.util.Random;
+
+/**
+ * The loop the randomized checks (PlacementUndoFuzz, BoardEventMirrorCheck, ReplayRoundTripCheck,
+ * HintLegalityCheck) share: reads `[games] [seed]` from the arguments, plays that many games
+ * with seeds drawn from the seed, and exits with 1 on the first game that went wrong, or
+ * if the games didn't cover everything the check needs to see.
+ * */
+class CheckRunner {
+    /** One game of a check */
+    interface Game {
+        /** Returns what went wrong, or null */
+        String play(int game, long seed) throws Exception;
+    }
+
+    /** Plays the games and returns how many there were, exits with 1 on the first one that went wrong */
+    static int run(String[] args, int defaultGames, long defaultSeed, Game game) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : defaultGames;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : defaultSeed;
+
+        Random random = new Random(seed);
+        for (int index = 0; index < games; index++) {
+            String failure = game.play(index, random.nextLong());
+            if (failure != null) fail("Game " + index + " (seed " + seed + "): " + failure);
+        }
+        return games;
+    }
+
+    /** Exits with 1 if the games didn't cover something, `missing` says what (e.g. "No game ended") */
+    static void requireCovered(boolean covered, String missing) {
+        if (!covered) fail(missing + ", run more games");
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+}
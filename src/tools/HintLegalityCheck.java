@@ -0,0 +1,163 @@
+package tools;
+
+import game.Board;
+import game.HintSearch;
+import game.PlacementUndo;
+import game.Tetromino;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that HintSearch only ever suggests placements the player can actually make. For every
+ * hint of random games: applyPlacement has to accept it, getLandingPiece (what PlayAreaPanel
+ * draws) has to be exactly where applyPlacement put the piece, and playing it by hand (hold if
+ * it's the other piece, rotate, shift, hard drop) has to end in the same board. The games follow
+ * the hints, with random inputs, holds, waits and garbage in between. <br>
+ * java -cp out tools.HintLegalityCheck [games] [seed] <br>
+ * Exits with 1 on the first illegal hint, or if no hint that needs holding came up.
+ * */
+public class HintLegalityCheck {
+    private static final int DEFAULT_GAMES = 20;
+    private static final int MAX_PIECES = 150; // Per game
+    private static final long HINT_TIMEOUT_NANOS = 200_000_000;
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 22;
+
+    private final HintSearch search = new HintSearch(() -> { });
+    private long hints;
+    private long heldHints;
+    private long timeouts;
+
+    public static void main(String[] args) throws Exception {
+        HintLegalityCheck check = new HintLegalityCheck();
+        int games = CheckRunner.run(args, DEFAULT_GAMES, 7, (game, seed) -> check.playGame(seed));
+
+        System.out.printf("%d games, %d hints (%d holding) all legal, %d positions without a hint in time%n",
+            games, check.hints, check.heldHints, check.timeouts);
+        CheckRunner.requireCovered(check.heldHints > 0, "No hint needed holding");
+    }
+
+    /** Returns what went wrong, or null */
+    private String playGame(long seed) throws InterruptedException {
+        Random random = new Random(seed);
+        Board board = new Board(WIDTH, HEIGHT, random.nextLong());
+
+        for (int pieces = 0; pieces < MAX_PIECES && board.getGameState() == Board.GameState.Playing; pieces++) {
+            // Shake the position up a bit, so the hints aren't always for a board the search expected
+            switch (random.nextInt(6)) {
+                case 0 -> board.switchWithHeldPiece();
+                case 1 -> board.shiftPiece(random.nextInt(9) - 4);
+                case 2 -> board.rotatePieceClockWise();
+                case 3 -> {
+                    for (int frame = random.nextInt(40); frame > 0; frame--) board.tick();
+                }
+                default -> { }
+            }
+            if (random.nextInt(15) == 0) board.addGarbageRows(1, random.nextInt(WIDTH));
+            board.tick();
+            if (board.getGameState() != Board.GameState.Playing) break;
+
+            HintSearch.Hint hint = waitForHint(board);
+            if (hint == null) {
+                timeouts++;
+                board.dropPiece();
+                board.tick();
+                continue;
+            }
+            hints++;
+            if (hint.type() != board.getCurrentPiece().getType()) heldHints++;
+
+            String failure = check(board, hint);
+            if (failure != null) return failure + "\n" + drawBoard(board);
+
+            playByHand(board, hint);
+            board.tick();
+        }
+        search.cancel();
+        return null;
+    }
+
+    private HintSearch.Hint waitForHint(Board board) throws InterruptedException {
+        search.update(board);
+        long deadline = System.nanoTime() + HINT_TIMEOUT_NANOS;
+        while (System.nanoTime() < deadline) {
+            HintSearch.Hint hint = search.getHint(board);
+            if (hint != null) return hint;
+            Thread.sleep(1);
+            // Each update only searches for about a frame
+            search.update(board);
+        }
+        return null;
+    }
+
+    /** Returns why the hint isn't legal on the board, or null */
+    private static String check(Board board, HintSearch.Hint hint) {
+        String placement = hint.type() + " rotated " + hint.rotation() + " at x " + hint.x() + " (depth " + hint.depth() + ")";
+
+        Board applied = board.copy();
+        PlacementUndo undo = applied.applyPlacement(hint.type(), hint.rotation(), hint.x());
+        if (undo == null) return "applyPlacement refused the hint " + placement;
+
+        Tetromino landing = board.getLandingPiece(hint.type(), hint.rotation(), hint.x());
+        if (landing == null) return "there is no landing piece for the hint " + placement;
+
+        // Where the landing piece is drawn has to be where the piece was locked (cleared rows would move it)
+        if (undo.getLinesCleared() == 0) {
+            byte[] before = new byte[WIDTH * HEIGHT];
+            byte[] after = new byte[WIDTH * HEIGHT];
+            board.copyCells(before);
+            applied.copyCells(after);
+            for (Point block : landing.getBlockCoordinates()) {
+                int cell = block.y * WIDTH + block.x;
+                if (block.y < 0 || before[cell] != 0 || after[cell] == 0)
+                    return "the hint " + placement + " is drawn at " + Arrays.toString(landing.getBlockCoordinates()) +
+                        " but not placed there";
+                after[cell] = 0;
+            }
+            if (!Arrays.equals(before, after))
+                return "the hint " + placement + " placed blocks outside of " + Arrays.toString(landing.getBlockCoordinates());
+        }
+
+        // The score can differ, applyPlacement drops from the spawn row and the piece may have fallen already
+        Board played = board.copy();
+        playByHand(played, hint);
+        byte[] placed = new byte[WIDTH * HEIGHT];
+        byte[] byHand = new byte[WIDTH * HEIGHT];
+        applied.copyCells(placed);
+        played.copyCells(byHand);
+        if (!Arrays.equals(placed, byHand) || played.getHeldPieceType() != applied.getHeldPieceType())
+            return "playing the hint " + placement + " by hand doesn't end where applyPlacement does, the piece can't get there";
+        return null;
+    }
+
+    /** The inputs a player would make for the hint: hold, rotate, shift, hard drop */
+    private static void playByHand(Board board, HintSearch.Hint hint) {
+        if (hint.type() != board.getCurrentPiece().getType()) board.switchWithHeldPiece();
+
+        // The piece may have been turned already
+        int rotation = 0;
+        while (rotation < 3 && !Arrays.equals(board.getCurrentPiece().getBlocksOffsets(),
+                                              Tetromino.getRotatedOffsets(hint.type(), rotation)))
+            rotation++;
+        int turns = (hint.rotation() - rotation + 4) % 4;
+        if (turns == 3) board.rotatePieceCounterClockwise();
+        else for (int turn = 0; turn < turns; turn++) board.rotatePieceClockWise();
+
+        board.shiftPiece(hint.x() - board.getCurrentPiece().getCurrentPosition().x);
+        board.dropPiece();
+    }
+
+    private static String drawBoard(Board board) {
+        byte[] cells = new byte[WIDTH * HEIGHT];
+        board.copyCells(cells);
+        StringBuilder text = new StringBuilder("current " + board.getCurrentPiece().getType() +
+            Arrays.toString(board.getCurrentPiece().getBlockCoordinates()) + ", held " + board.getHeldPieceType());
+        for (int row = 0; row < HEIGHT; row++) {
+            text.append('\n');
+            for (int col = 0; col < WIDTH; col++) text.append(cells[row * WIDTH + col]);
+        }
+        return text.toString();
+    }
+}
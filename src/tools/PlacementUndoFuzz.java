@@ -0,0 +1,141 @@
+package tools;
+
+import game.Board;
+import game.Bot;
+import game.PlacementUndo;
+import game.Tetromino;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Checks that Board.undo takes back Board.applyPlacement exactly: plays random games, and at
+ * every step applies a random stack of placements (up to MAX_DEPTH deep) and undoes them in
+ * reverse, comparing the whole board to what it was before each one. The games go through
+ * line clears, hold swaps, garbage, bag refills and game overs, and each of those has to come
+ * up at least once, so the run fails if the random games stop covering one of them. <br>
+ * java -cp out tools.PlacementUndoFuzz [games] [seed] <br>
+ * Exits with 1 on the first mismatch (printing both states), or if something wasn't covered (see CheckRunner).
+ * */
+public class PlacementUndoFuzz {
+    private static final int DEFAULT_GAMES = 300;
+    private static final int STEPS_PER_GAME = 400;
+    private static final int MAX_DEPTH = 6;
+
+    private long roundTrips;
+    private long lineClears;
+    private long holdSwaps;
+    private long garbageRoundTrips; // Round trips on a board that had garbage added
+    private long bagRefills;
+    private long gameOvers;
+
+    public static void main(String[] args) throws Exception {
+        PlacementUndoFuzz fuzz = new PlacementUndoFuzz();
+        int games = CheckRunner.run(args, DEFAULT_GAMES, 42, (game, seed) -> fuzz.playGame(seed));
+
+        System.out.printf(
+            "%d games, %d round trips: %d line clears, %d hold swaps, %d with garbage, %d bag refills, %d game overs%n",
+            games, fuzz.roundTrips, fuzz.lineClears, fuzz.holdSwaps, fuzz.garbageRoundTrips, fuzz.bagRefills, fuzz.gameOvers
+        );
+        CheckRunner.requireCovered(fuzz.lineClears > 0 && fuzz.holdSwaps > 0 && fuzz.garbageRoundTrips > 0 &&
+                                   fuzz.bagRefills > 0 && fuzz.gameOvers > 0, "Not every case was covered");
+    }
+
+    /** Returns what went wrong, or null */
+    private String playGame(long seed) {
+        Random random = new Random(seed);
+        Board board = new Board(10, 22, random.nextLong());
+        Bot bot = new Bot();
+        boolean garbage = false;
+
+        Deque<PlacementUndo> undos = new ArrayDeque<>();
+        Deque<String> states = new ArrayDeque<>();
+
+        for (int step = 0; step < STEPS_PER_GAME && board.getGameState() == Board.GameState.Playing; step++) {
+            int depth = 1 + random.nextInt(MAX_DEPTH);
+            for (int placement = 0; placement < depth; placement++) {
+                String before = describe(board);
+                Tetromino.Type current = board.getCurrentPiece().getType();
+                // Mostly the current piece, sometimes whatever, which is rejected unless it's the hold swap
+                Tetromino.Type type = random.nextInt(3) == 0
+                    ? Tetromino.PIECE_TYPES[random.nextInt(Tetromino.PIECE_TYPES.length)]
+                    : current;
+                int queued = board.getNextPieceCount();
+
+                PlacementUndo undo = board.applyPlacement(type, random.nextInt(4), random.nextInt(board.boardWidth));
+                if (undo == null) {
+                    if (!before.equals(describe(board))) return "a rejected placement changed the board";
+                    continue;
+                }
+
+                if (undo.getLinesCleared() > 0) lineClears++;
+                if (type != current) holdSwaps++;
+                if (board.getNextPieceCount() > queued) bagRefills++;
+                if (board.getGameState() == Board.GameState.Stopped) gameOvers++;
+                undos.push(undo);
+                states.push(before);
+            }
+
+            while (!undos.isEmpty()) {
+                board.undo(undos.pop());
+                String expected = states.pop();
+                String actual = describe(board);
+                if (!expected.equals(actual))
+                    return "step " + step + ", undo mismatch\nexpected " + expected + "\nactual   " + actual;
+
+                roundTrips++;
+                if (garbage) garbageRoundTrips++;
+            }
+
+            // Move the real game along, in every way it can change between searches
+            switch (random.nextInt(6)) {
+                case 0 -> board.switchWithHeldPiece();
+                case 1 -> board.movePieceLeft();
+                case 2 -> board.rotatePieceClockWise();
+                case 3 -> {
+                    for (int tick = random.nextInt(40); tick > 0; tick--) board.tick();
+                }
+                case 4 -> board.dropPiece();
+                default -> {
+                    if (bot.think(board)) bot.play(board);
+                }
+            }
+            if (random.nextInt(20) == 0) {
+                board.addGarbageRows(1 + random.nextInt(3), random.nextInt(board.boardWidth));
+                garbage = true;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Everything about the board that a placement can change, along with checking
+     * that the column masks agree with the cells (a mismatch there is a bug too).
+     * */
+    private static String describe(Board board) {
+        byte[] cells = new byte[board.boardWidth * board.boardHeight];
+        board.copyCells(cells);
+
+        int[] masks = new int[board.boardWidth];
+        for (int col = 0; col < board.boardWidth; col++) {
+            masks[col] = board.getColumnMask(col);
+            int fromCells = 0;
+            for (int row = 0; row < board.boardHeight; row++)
+                if (cells[row * board.boardWidth + col] != 0) fromCells |= 1 << row;
+            if (fromCells != masks[col]) return "column " + col + " mask doesn't match its cells";
+        }
+
+        Tetromino piece = board.getCurrentPiece();
+        return Long.toHexString(board.stateHash()) +
+            " state=" + board.getGameState() +
+            " score=" + board.getScore() +
+            " lines=" + board.getLinesCleared() +
+            " piece=" + piece.getType() + piece.getCurrentPosition() + Arrays.toString(piece.getBlockCoordinates()) +
+            " held=" + board.getHeldPieceType() +
+            " next=" + Arrays.toString(board.getNextPieces()) +
+            " masks=" + Arrays.toString(masks) +
+            " cells=" + Arrays.toString(cells);
+    }
+}
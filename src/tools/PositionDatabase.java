@@ -0,0 +1,224 @@
+package tools;
+
+import game.Board;
+import game.Bot;
+import game.Tetromino;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every continuation played from a position in recorded games, with how often it was
+ * played and how well the game went from there. Built offline by PositionDatabaseBuilder,
+ * and memory-mapped to be queried, so lookups don't load anything onto the heap and
+ * take about a microsecond. <br> <br>
+ * A position is the state right after a piece locked: which cells are filled (not which piece
+ * filled them), the piece to place next and the held piece. Positions are identified by a
+ * 64 bit hash of that (see hash), with hundreds of millions of positions the odds of two of
+ * them sharing a hash are still well below one in a thousand. <br>
+ * Two files: `<name>.index` is a header with a directory of partitions, followed by one
+ * open addressing (linear probing) hash table per partition, picked by the top bits of the
+ * hash. `<name>.cont` holds the continuations, every position's next to each other. <br>
+ * Table slot (16 bytes): the hash (0 = empty slot), then the index of the position's first
+ * continuation within the partition << 16 | the amount of continuations. <br>
+ * Continuation (24 bytes): placed type, rotation, column, padding, the times it was played (int),
+ * how many of those games went on until they were over (int), padding, then the sum of the outcomes
+ * of those games (long, see SelfPlayDataset.Column.OUTCOME). Games that were cut off only count
+ * as played, their outcome doesn't say how well the continuation went. <br>
+ * Also a Bot.Book, playing the continuation with the best average outcome. <br>
+ * Safe to query from any amount of threads.
+ * */
+public class PositionDatabase implements Closeable, Bot.Book {
+    private static final Tetromino.Type[] TYPES = Tetromino.Type.values();
+    static final long MAGIC = 0x3142445350534B42L; // "BKSPSDB1"
+    static final int VERSION = 2; // 2: continuations count the games that ended separately
+    static final int SLOT_BYTES = 16;
+    static final int CONTINUATION_BYTES = 24;
+    // A continuation's average is only trusted as a book move once that many of its games ended
+    private static final int BOOK_MIN_GAMES = 3;
+
+    // Index header, followed by the directory (one entry per partition)
+    static final int HEADER_WIDTH = 12;
+    static final int HEADER_HEIGHT = 16;
+    static final int HEADER_PARTITION_BITS = 20;
+    static final int HEADER_POSITIONS = 24;
+    static final int HEADER_DIRECTORY = 64;
+    // Directory entry: table offset (long), table capacity (int, a power of 2),
+    // padding, continuations offset (long), amount of continuations (long)
+    static final int DIRECTORY_ENTRY_BYTES = 32;
+
+    /**
+     * One way a position was continued, `count` times, `finished` of which in games that went on until
+     * they were over. The average outcome is of those, NaN if there are none.
+     * */
+    public record Continuation(Tetromino.Type type, int rotation, int x, int count, int finished, double averageOutcome) { }
+
+    public final int boardWidth;
+    public final int boardHeight;
+    public final long positions;
+
+    private final FileChannel index;
+    private final FileChannel continuations;
+    private final int partitionBits;
+    private final MappedByteBuffer[] tables;
+    private final int[] tableMasks;
+    private final MappedByteBuffer[] partitionContinuations;
+
+    private PositionDatabase(Path base) throws IOException {
+        index = FileChannel.open(indexFile(base), StandardOpenOption.READ);
+        continuations = FileChannel.open(continuationsFile(base), StandardOpenOption.READ);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_DIRECTORY).order(ByteOrder.LITTLE_ENDIAN);
+        index.read(header, 0);
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            close();
+            throw new IOException(base + " is not a position database (or from an other version)");
+        }
+
+        boardWidth = header.getInt(HEADER_WIDTH);
+        boardHeight = header.getInt(HEADER_HEIGHT);
+        partitionBits = header.getInt(HEADER_PARTITION_BITS);
+        positions = header.getLong(HEADER_POSITIONS);
+
+        int partitions = 1 << partitionBits;
+        ByteBuffer directory = ByteBuffer.allocate(partitions * DIRECTORY_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        index.read(directory, HEADER_DIRECTORY);
+
+        // A partition is always small enough to be mapped in one piece
+        tables = new MappedByteBuffer[partitions];
+        tableMasks = new int[partitions];
+        partitionContinuations = new MappedByteBuffer[partitions];
+        for (int partition = 0; partition < partitions; partition++) {
+            int entry = partition * DIRECTORY_ENTRY_BYTES;
+            int capacity = directory.getInt(entry + 8);
+            long continuationCount = directory.getLong(entry + 24);
+
+            tables[partition] = map(index, directory.getLong(entry), (long) capacity * SLOT_BYTES);
+            tableMasks[partition] = capacity - 1;
+            partitionContinuations[partition] = map(continuations, directory.getLong(entry + 16),
+                                                    continuationCount * CONTINUATION_BYTES);
+        }
+    }
+
+    public static PositionDatabase open(Path base) throws IOException {
+        return new PositionDatabase(base);
+    }
+
+    static Path indexFile(Path base) {
+        return base.resolveSibling(base.getFileName() + ".index");
+    }
+
+    static Path continuationsFile(Path base) {
+        return base.resolveSibling(base.getFileName() + ".cont");
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long bytes) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+        continuations.close();
+    }
+
+
+    // Queries
+
+    /** Every continuation of the board's current position, an empty list if it was never seen */
+    public List<Continuation> lookup(Board board) {
+        if (board.boardWidth != boardWidth || board.boardHeight != boardHeight) return List.of();
+
+        Tetromino.Type held = board.getHeldPieceType();
+        return lookup(hash(packGrid(board), board.getCurrentPiece().getType().ordinal(),
+                           held == null ? 0 : held.ordinal() + 1));
+    }
+
+    /** Same as lookup(Board), for a hash from `hash` */
+    public List<Continuation> lookup(long hash) {
+        int partition = partitionOf(hash, partitionBits);
+        ByteBuffer table = tables[partition];
+        int mask = tableMasks[partition];
+
+        // Linear probing, the tables are never more than 70% full so runs stay short
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long key = table.getLong(slot * SLOT_BYTES);
+            if (key == 0) return List.of();
+            if (key != hash) continue;
+
+            long value = table.getLong(slot * SLOT_BYTES + 8);
+            int first = (int) (value >>> 16);
+            int count = (int) (value & 0xFFFF);
+
+            ByteBuffer records = partitionContinuations[partition];
+            List<Continuation> result = new ArrayList<>(count);
+            for (int index = first; index < first + count; index++) {
+                int record = index * CONTINUATION_BYTES;
+                int finished = records.getInt(record + 8);
+                result.add(new Continuation(
+                    TYPES[records.get(record)], records.get(record + 1), records.get(record + 2),
+                    records.getInt(record + 4), finished,
+                    finished == 0 ? Double.NaN : (double) records.getLong(record + 16) / finished
+                ));
+            }
+            return result;
+        }
+    }
+
+    /** The continuation with the best average outcome, among those with enough games that ended */
+    @Override
+    public Bot.Placement choose(Board board) {
+        Continuation best = null;
+        for (Continuation continuation : lookup(board))
+            if (continuation.finished() >= BOOK_MIN_GAMES &&
+                (best == null || continuation.averageOutcome() > best.averageOutcome()))
+                best = continuation;
+        return best == null ? null : new Bot.Placement(best.type(), best.rotation(), best.x());
+    }
+
+
+    // Positions
+
+    /** The filled cells of the board, one bit per cell (bit `row * width + col`), same as SelfPlayDataset */
+    public static long[] packGrid(Board board) {
+        byte[] cells = new byte[board.boardWidth * board.boardHeight];
+        board.copyCells(cells);
+
+        long[] grid = new long[(cells.length + 63) / 64];
+        for (int cell = 0; cell < cells.length; cell++)
+            if (cells[cell] != 0) grid[cell / 64] |= 1L << (cell % 64);
+        return grid;
+    }
+
+    /**
+     * Identifies a position: its packed grid, the piece to place (Tetromino.Type ordinal)
+     * and the held piece (ordinal + 1, 0 for none). Never 0, which marks empty table slots.
+     * */
+    public static long hash(long[] grid, int piece, int hold) {
+        long hash = mix(piece * 8L + hold);
+        for (long word : grid) hash = mix(hash ^ word) + 0x9E3779B97F4A7C15L;
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /** SplitMix64's finalizer, every input bit affects every output bit */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static int partitionOf(long hash, int partitionBits) {
+        return partitionBits == 0 ? 0 : (int) (hash >>> (64 - partitionBits));
+    }
+}
@@ -0,0 +1,511 @@
+package tools;
+
+import game.Board;
+import game.Replay;
+import game.Tetromino;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds a PositionDatabase from SelfPlayDataset files and folders of recorded games (see Replay),
+ * on every core. The recorded games are played back into a temporary dataset first, the same
+ * rows the bots' games give, then everything is indexed in two passes: <br>
+ * 1. The row groups of every input file are shared out between the threads. Every row becomes
+ *    a (position hash, placement, outcome, whether its game ended) record, appended to the spill file of the partition
+ *    the hash belongs to. Space in a spill file is reserved with an atomic counter and written
+ *    with positional writes, so threads never wait on each other. <br>
+ * 2. The partitions are shared out between the threads. A partition's records are sorted, the
+ *    identical continuations of a position merged, and its hash table and continuations are
+ *    written to space reserved the same way at the end of the database files. <br>
+ * Only one partition per thread is ever on the heap (the amount of partitions is picked so they
+ * stay around RECORDS_PER_PARTITION records), so the size of the database isn't limited by the heap.
+ * Each pass uses fewer threads than asked for if their buffers wouldn't fit in HEAP_SHARE of the heap. <br>
+ * Usage: java -cp out tools.PositionDatabaseBuilder <database> <dataset or replay folder>...
+ * */
+public class PositionDatabaseBuilder {
+    private static final long RECORDS_PER_PARTITION = 4_000_000; // 64MB of heap to sort one
+    private static final int MAX_PARTITION_BITS = 12;
+    private static final int SPILL_RECORD_BYTES = 16; // The hash, then placement << 32 | FINISHED | outcome
+    private static final long FINISHED = 1L << 31; // Set for the rows of games that went on until they were over
+    private static final int SPILL_BUFFERS_BYTES = 8 << 20; // Per thread, shared by all partitions
+    private static final int BENCHMARK_LOOKUPS = 100_000;
+    private static final double HEAP_SHARE = 0.5; // Of Runtime.maxMemory(), the rest is left for everything else
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PositionDatabaseBuilder <database> <dataset or replay folder>...");
+            System.exit(1);
+        }
+
+        Path base = Path.of(args[0]);
+        List<Path> inputs = new ArrayList<>();
+        for (int index = 1; index < args.length; index++) inputs.add(Path.of(args[index]));
+
+        long startNanos = System.nanoTime();
+        long positions = build(base, inputs, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%d positions indexed in %.1fs%n", positions, (System.nanoTime() - startNanos) / 1e9);
+
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) continue;
+            benchmark(base, input);
+            break;
+        }
+    }
+
+    /** A group of an input file, the unit of work of the first pass */
+    private record Work(SelfPlayDataset dataset, long group) { }
+
+    /** Builds the database at `base` from every input (folders are replays), returns the amount of positions */
+    public static long build(Path base, List<Path> inputs, int threadCount) throws Exception {
+        List<SelfPlayDataset> datasets = new ArrayList<>();
+        List<Work> work = new ArrayList<>();
+        long rows = 0;
+
+        Path spillFolder = Files.createTempDirectory(base.toAbsolutePath().getParent(), "position-spill");
+        Path replayRows = spillFolder.resolve("replays.dataset");
+        try {
+            List<Path> datasetFiles = new ArrayList<>();
+            List<Path> replayFolders = new ArrayList<>();
+            for (Path input : inputs) (Files.isDirectory(input) ? replayFolders : datasetFiles).add(input);
+            if (!replayFolders.isEmpty() && importReplays(replayFolders, replayRows)) datasetFiles.add(replayRows);
+            if (datasetFiles.isEmpty()) throw new IOException("Nothing to index, none of the replays checked out");
+
+            for (Path input : datasetFiles) {
+                SelfPlayDataset dataset = SelfPlayDataset.open(input);
+                datasets.add(dataset);
+                if (dataset.boardWidth != datasets.get(0).boardWidth || dataset.boardHeight != datasets.get(0).boardHeight)
+                    throw new IOException(input + " was recorded on a different board size");
+
+                for (long group = 0; group < dataset.getGroupCount(); group++) {
+                    work.add(new Work(dataset, group));
+                    rows += SelfPlayDataset.getRowCount(dataset.readGroup(group));
+                }
+            }
+
+            int partitionBits = 0;
+            while (partitionBits < MAX_PARTITION_BITS && (rows >> partitionBits) > RECORDS_PER_PARTITION)
+                partitionBits++;
+
+            Partitions partitions = new Partitions(spillFolder, partitionBits);
+            try {
+                spill(work, partitions, threadCount);
+                return writeDatabase(base, datasets.get(0), partitions, threadCount);
+            } finally {
+                partitions.close();
+            }
+
+        } finally {
+            for (SelfPlayDataset dataset : datasets) dataset.close();
+            Files.deleteIfExists(replayRows);
+            Files.deleteIfExists(spillFolder);
+        }
+    }
+
+
+    // Recorded games
+
+    /** A placement of a replay being imported, with the board from before it */
+    private record ReplayRow(Board before, Tetromino.Type type, int rotation, int x) { }
+
+    /**
+     * Plays every replay of the folders back and writes its placements into a new dataset at `file`.
+     * Replays that don't check out (see ReplayVerifier) or were recorded on an other board size than
+     * the first one are skipped. Returns false if none was imported.
+     * */
+    private static boolean importReplays(List<Path> folders, Path file) throws IOException {
+        SelfPlayDataset dataset = null;
+        SelfPlayDataset.Writer writer = null;
+        int imported = 0, skipped = 0;
+        long placements = 0;
+
+        try {
+            for (Path folder : folders) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, Files::isRegularFile)) {
+                    for (Path replayFile : files) {
+                        // A game's rows are only written once it checked out
+                        List<ReplayRow> rows = new ArrayList<>();
+                        Replay replay;
+                        Board board;
+                        try {
+                            replay = Replay.open(replayFile);
+                            board = replay.play((before, type, rotation, x) -> rows.add(new ReplayRow(before, type, rotation, x)));
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println("Skipping " + replayFile + ": " + e.getMessage());
+                            skipped++;
+                            continue;
+                        }
+
+                        if (dataset == null) {
+                            dataset = SelfPlayDataset.create(file, replay.boardWidth, replay.boardHeight);
+                            writer = dataset.newWriter();
+                        }
+                        if (replay.boardWidth != dataset.boardWidth || replay.boardHeight != dataset.boardHeight ||
+                            board.stateHash() != replay.claimedStateHash || board.getScore() != replay.claimedScore) {
+                            System.err.println("Skipping " + replayFile + ": not the result it claims, or an other board size");
+                            skipped++;
+                            continue;
+                        }
+
+                        for (ReplayRow row : rows) writer.addRow(row.before(), row.type(), row.rotation(), row.x());
+                        writer.endGame(board.getLinesCleared(), board.getGameState() == Board.GameState.Stopped);
+                        imported++;
+                        placements += rows.size();
+                    }
+                }
+            }
+        } finally {
+            if (writer != null) writer.close();
+            if (dataset != null) dataset.close();
+        }
+
+        System.out.printf("%d replays imported (%d placements), %d skipped%n", imported, placements, skipped);
+        return imported > 0;
+    }
+
+
+    // First pass
+
+    /** The spill files, and how much of each is reserved so far */
+    private static class Partitions {
+        final int bits;
+        final int count;
+        final Path[] files;
+        final FileChannel[] channels;
+        final AtomicLong[] sizes;
+
+        Partitions(Path folder, int bits) throws IOException {
+            this.bits = bits;
+            count = 1 << bits;
+            files = new Path[count];
+            channels = new FileChannel[count];
+            sizes = new AtomicLong[count];
+            for (int partition = 0; partition < count; partition++) {
+                files[partition] = folder.resolve(partition + ".spill");
+                channels[partition] = FileChannel.open(files[partition],
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                sizes[partition] = new AtomicLong();
+            }
+        }
+
+        /** Appends the buffer's records to the partition's spill file, from any thread */
+        void append(int partition, ByteBuffer records) throws IOException {
+            records.flip();
+            long position = sizes[partition].getAndAdd(records.remaining());
+            while (records.hasRemaining()) position += channels[partition].write(records, position);
+            records.clear();
+        }
+
+        void close() throws IOException {
+            for (int partition = 0; partition < count; partition++) {
+                channels[partition].close();
+                Files.deleteIfExists(files[partition]);
+            }
+        }
+    }
+
+    private static void spill(List<Work> work, Partitions partitions, int threadCount) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        runThreads(threadsFitting(SPILL_BUFFERS_BYTES, threadCount), "position-spill", () -> {
+            // Records are gathered per partition, then appended a buffer at a time
+            int bufferBytes = Math.max(SPILL_RECORD_BYTES * 64, SPILL_BUFFERS_BYTES / partitions.count / SPILL_RECORD_BYTES * SPILL_RECORD_BYTES);
+            ByteBuffer[] buffers = new ByteBuffer[partitions.count];
+            for (int partition = 0; partition < partitions.count; partition++)
+                buffers[partition] = ByteBuffer.allocate(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int item = next.getAndIncrement(); item < work.size(); item = next.getAndIncrement()) {
+                SelfPlayDataset dataset = work.get(item).dataset;
+                ByteBuffer group = dataset.readGroup(work.get(item).group);
+                int rows = SelfPlayDataset.getRowCount(group);
+
+                ByteBuffer grids = dataset.getColumn(group, SelfPlayDataset.Column.GRID);
+                ByteBuffer pieces = dataset.getColumn(group, SelfPlayDataset.Column.PIECE);
+                ByteBuffer holds = dataset.getColumn(group, SelfPlayDataset.Column.HOLD);
+                ByteBuffer placements = dataset.getColumn(group, SelfPlayDataset.Column.PLACEMENT);
+                ByteBuffer outcomes = dataset.getColumn(group, SelfPlayDataset.Column.OUTCOME);
+                ByteBuffer endings = dataset.getColumn(group, SelfPlayDataset.Column.ENDING);
+                long[] grid = new long[dataset.getColumnBytes(SelfPlayDataset.Column.GRID) / 8];
+
+                for (int row = 0; row < rows; row++) {
+                    for (int word = 0; word < grid.length; word++)
+                        grid[word] = grids.getLong((row * grid.length + word) * 8);
+                    long hash = PositionDatabase.hash(grid, pieces.get(row), holds.get(row));
+
+                    long placement = (placements.get(row * 3) & 0xFFL) << 16 |
+                                     (placements.get(row * 3 + 1) & 0xFFL) << 8 |
+                                     (placements.get(row * 3 + 2) & 0xFFL);
+                    int partition = PositionDatabase.partitionOf(hash, partitions.bits);
+                    ByteBuffer buffer = buffers[partition];
+                    buffer.putLong(hash);
+                    long finished = endings.get(row) == SelfPlayDataset.Ending.GameOver.ordinal() ? FINISHED : 0;
+                    buffer.putLong(placement << 32 | finished | outcomes.getInt(row * 4));
+                    if (!buffer.hasRemaining()) partitions.append(partition, buffer);
+                }
+            }
+
+            for (int partition = 0; partition < partitions.count; partition++)
+                if (buffers[partition].position() > 0) partitions.append(partition, buffers[partition]);
+        });
+    }
+
+
+    // Second pass
+
+    private static long writeDatabase(Path base, SelfPlayDataset layout, Partitions partitions,
+                                      int threadCount) throws Exception {
+        int directoryBytes = partitions.count * PositionDatabase.DIRECTORY_ENTRY_BYTES;
+        long headerBytes = (PositionDatabase.HEADER_DIRECTORY + directoryBytes + 4095) / 4096 * 4096;
+        ByteBuffer directory = ByteBuffer.allocate(directoryBytes).order(ByteOrder.LITTLE_ENDIAN);
+        LongAdder positions = new LongAdder();
+
+        try (FileChannel index = FileChannel.open(PositionDatabase.indexFile(base),
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel continuations = FileChannel.open(PositionDatabase.continuationsFile(base),
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            AtomicLong indexEnd = new AtomicLong(headerBytes);
+            AtomicLong continuationsEnd = new AtomicLong();
+            AtomicInteger next = new AtomicInteger();
+
+            // Every thread holds the hashes and payloads of a partition, 16 bytes a record like the spill files
+            long largestPartition = 0;
+            for (AtomicLong size : partitions.sizes) largestPartition = Math.max(largestPartition, size.get());
+
+            runThreads(threadsFitting(largestPartition, threadCount), "position-index", () -> {
+                for (int partition = next.getAndIncrement(); partition < partitions.count; partition = next.getAndIncrement()) {
+                    long[] entry = writePartition(partitions, partition, index, indexEnd, continuations, continuationsEnd);
+                    positions.add(entry[4]);
+                    synchronized (directory) {
+                        int offset = partition * PositionDatabase.DIRECTORY_ENTRY_BYTES;
+                        directory.putLong(offset, entry[0]);
+                        directory.putInt(offset + 8, (int) entry[1]);
+                        directory.putLong(offset + 16, entry[2]);
+                        directory.putLong(offset + 24, entry[3]);
+                    }
+                }
+            });
+
+            ByteBuffer header = ByteBuffer.allocate(PositionDatabase.HEADER_DIRECTORY).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(0, PositionDatabase.MAGIC);
+            header.putInt(8, PositionDatabase.VERSION);
+            header.putInt(PositionDatabase.HEADER_WIDTH, layout.boardWidth);
+            header.putInt(PositionDatabase.HEADER_HEIGHT, layout.boardHeight);
+            header.putInt(PositionDatabase.HEADER_PARTITION_BITS, partitions.bits);
+            header.putLong(PositionDatabase.HEADER_POSITIONS, positions.sum());
+            index.write(header, 0);
+            index.write(directory, PositionDatabase.HEADER_DIRECTORY);
+        }
+
+        return positions.sum();
+    }
+
+    /**
+     * Sorts, merges and writes one partition. Returns its directory entry: table offset,
+     * table capacity, continuations offset, amount of continuations, and amount of positions.
+     * */
+    private static long[] writePartition(Partitions partitions, int partition,
+                                         FileChannel index, AtomicLong indexEnd,
+                                         FileChannel continuations, AtomicLong continuationsEnd) throws IOException {
+        int records = (int) (partitions.sizes[partition].get() / SPILL_RECORD_BYTES);
+        long[] hashes = new long[records];
+        long[] payloads = new long[records];
+
+        ByteBuffer spill = partitions.channels[partition]
+            .map(FileChannel.MapMode.READ_ONLY, 0, (long) records * SPILL_RECORD_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        for (int record = 0; record < records; record++) {
+            hashes[record] = spill.getLong(record * SPILL_RECORD_BYTES);
+            payloads[record] = spill.getLong(record * SPILL_RECORD_BYTES + 8);
+        }
+        sort(hashes, payloads, 0, records - 1);
+
+        // Sorted by hash then placement, so every position and every continuation is a run
+        int positions = 0, continuationCount = 0;
+        for (int record = 0; record < records; record++) {
+            if (record == 0 || hashes[record] != hashes[record - 1]) positions++;
+            if (record == 0 || hashes[record] != hashes[record - 1] ||
+                payloads[record] >>> 32 != payloads[record - 1] >>> 32) continuationCount++;
+        }
+
+        int capacity = 2;
+        while (capacity < positions * 10L / 7 + 1) capacity <<= 1;
+        long tableOffset = indexEnd.getAndAdd((long) capacity * PositionDatabase.SLOT_BYTES);
+        long continuationsOffset = continuationsEnd.getAndAdd((long) continuationCount * PositionDatabase.CONTINUATION_BYTES);
+
+        MappedByteBuffer table = index.map(FileChannel.MapMode.READ_WRITE, tableOffset,
+                                           (long) capacity * PositionDatabase.SLOT_BYTES);
+        MappedByteBuffer output = continuations.map(FileChannel.MapMode.READ_WRITE, continuationsOffset,
+                                                    (long) continuationCount * PositionDatabase.CONTINUATION_BYTES);
+        table.order(ByteOrder.LITTLE_ENDIAN);
+        output.order(ByteOrder.LITTLE_ENDIAN);
+
+        int written = 0;
+        for (int start = 0; start < records; ) {
+            long hash = hashes[start];
+            int firstContinuation = written;
+
+            int end = start;
+            while (end < records && hashes[end] == hash) {
+                long placement = payloads[end] >>> 32;
+                int played = 0, finished = 0;
+                long outcomes = 0;
+                while (end < records && hashes[end] == hash && payloads[end] >>> 32 == placement) {
+                    played++;
+                    // The outcome of a game that was cut off says nothing about how well it went
+                    if ((payloads[end] & FINISHED) != 0) {
+                        finished++;
+                        outcomes += payloads[end] & (FINISHED - 1);
+                    }
+                    end++;
+                }
+
+                int record = written * PositionDatabase.CONTINUATION_BYTES;
+                output.put(record, (byte) (placement >>> 16));
+                output.put(record + 1, (byte) (placement >>> 8));
+                output.put(record + 2, (byte) placement);
+                output.putInt(record + 4, played);
+                output.putInt(record + 8, finished);
+                output.putLong(record + 16, outcomes);
+                written++;
+            }
+
+            int mask = capacity - 1;
+            int slot = (int) hash & mask;
+            while (table.getLong(slot * PositionDatabase.SLOT_BYTES) != 0) slot = (slot + 1) & mask;
+            table.putLong(slot * PositionDatabase.SLOT_BYTES, hash);
+            table.putLong(slot * PositionDatabase.SLOT_BYTES + 8,
+                          (long) firstContinuation << 16 | (written - firstContinuation));
+            start = end;
+        }
+
+        return new long[] { tableOffset, capacity, continuationsOffset, continuationCount, positions };
+    }
+
+    /** Quicksort of the records by hash, then payload, moving both arrays together */
+    private static void sort(long[] hashes, long[] payloads, int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            long pivotHash = hashes[middle], pivotPayload = payloads[middle];
+            int left = low, right = high;
+            while (left <= right) {
+                while (compare(hashes[left], payloads[left], pivotHash, pivotPayload) < 0) left++;
+                while (compare(hashes[right], payloads[right], pivotHash, pivotPayload) > 0) right--;
+                if (left <= right) swap(hashes, payloads, left++, right--);
+            }
+
+            // Recurse into the smaller side, loop on the bigger one, so the stack stays shallow
+            if (right - low < high - left) {
+                sort(hashes, payloads, low, right);
+                low = left;
+            } else {
+                sort(hashes, payloads, left, high);
+                high = right;
+            }
+        }
+
+        for (int index = low + 1; index <= high; index++)
+            for (int other = index; other > low &&
+                 compare(hashes[other - 1], payloads[other - 1], hashes[other], payloads[other]) > 0; other--)
+                swap(hashes, payloads, other, other - 1);
+    }
+
+    private static int compare(long hash, long payload, long otherHash, long otherPayload) {
+        int byHash = Long.compare(hash, otherHash);
+        return byHash != 0 ? byHash : Long.compare(payload, otherPayload);
+    }
+
+    private static void swap(long[] hashes, long[] payloads, int a, int b) {
+        long hash = hashes[a];
+        hashes[a] = hashes[b];
+        hashes[b] = hash;
+        long payload = payloads[a];
+        payloads[a] = payloads[b];
+        payloads[b] = payload;
+    }
+
+
+    // Helpers
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    /** How many of the threads can each have that many bytes on the heap at once, at least one */
+    private static int threadsFitting(long bytesPerThread, int threadCount) {
+        long budget = (long) (Runtime.getRuntime().maxMemory() * HEAP_SHARE);
+        long fitting = Math.max(1, budget / Math.max(1, bytesPerThread));
+        if (fitting < threadCount)
+            System.err.println("Only " + fitting + " of " + threadCount + " threads fit in the heap, give it more with -Xmx to use them all");
+        return (int) Math.min(threadCount, fitting);
+    }
+
+    /** Runs the task on that many threads at once and waits for all of them, rethrowing the first failure */
+    private static void runThreads(int threadCount, String name, Task task) throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        Exception[] failure = new Exception[1];
+        for (int index = 0; index < threadCount; index++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        if (failure[0] == null) failure[0] = e;
+                    }
+                }
+            }, name + "-" + index);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) thread.join();
+        if (failure[0] != null) throw failure[0];
+    }
+
+    /** Looks up positions of the first input, to check they are all found and time the lookups */
+    private static void benchmark(Path base, Path input) throws IOException {
+        try (PositionDatabase database = PositionDatabase.open(base);
+             SelfPlayDataset dataset = SelfPlayDataset.open(input)) {
+            if (dataset.getGroupCount() == 0) return;
+
+            ByteBuffer group = dataset.readGroup(0);
+            int rows = Math.min(BENCHMARK_LOOKUPS, SelfPlayDataset.getRowCount(group));
+            ByteBuffer grids = dataset.getColumn(group, SelfPlayDataset.Column.GRID);
+            ByteBuffer pieces = dataset.getColumn(group, SelfPlayDataset.Column.PIECE);
+            ByteBuffer holds = dataset.getColumn(group, SelfPlayDataset.Column.HOLD);
+
+            long[] hashes = new long[rows];
+            long[] grid = new long[dataset.getColumnBytes(SelfPlayDataset.Column.GRID) / 8];
+            for (int row = 0; row < rows; row++) {
+                for (int word = 0; word < grid.length; word++)
+                    grid[word] = grids.getLong((row * grid.length + word) * 8);
+                hashes[row] = PositionDatabase.hash(grid, pieces.get(row), holds.get(row));
+            }
+
+            // The first round warms up the JIT and the page cache
+            int missing = 0;
+            long nanos = 0;
+            for (int round = 0; round < 2; round++) {
+                missing = 0;
+                long startNanos = System.nanoTime();
+                for (long hash : hashes)
+                    if (database.lookup(hash).isEmpty()) missing++;
+                nanos = System.nanoTime() - startNanos;
+            }
+
+            System.out.printf("%d lookups, %d not found, %.2f us per lookup%n", rows, missing, nanos / 1e3 / rows);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package tools;
+
+import game.Board;
+import game.Bot;
+import game.Replay;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Records random games (see Replay.Recorder), saves them, and plays the saved files back:
+ * every replay has to end in exactly the state the live board ended in (Board.stateHash,
+ * score, lines, frames). The games use every Action, with bot placements and random waits
+ * between the inputs. Each game is also saved a second time after cheating a hard drop in
+ * without recording it, and playing that one back must not match what it claims. Saving
+ * over an existing replay has to fail. The files go to a temporary folder that is deleted
+ * afterwards, only the replays of a game that went wrong are kept there. <br>
+ * java -cp out tools.ReplayRoundTripCheck [games] [seed] <br>
+ * Exits with 1 on the first replay that doesn't round trip, or if a cheat went unnoticed.
+ * */
+public class ReplayRoundTripCheck {
+    private static final int DEFAULT_GAMES = 100;
+    private static final int BOT_PIECES = 80; // Then it only hard drops, until the game is over
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 22;
+
+    private long frames;
+    private long inputs;
+
+    public static void main(String[] args) throws Exception {
+        ReplayRoundTripCheck check = new ReplayRoundTripCheck();
+        Path folder = Files.createTempDirectory("replay-check");
+        int games = CheckRunner.run(args, DEFAULT_GAMES, 7, (game, seed) -> {
+            String failure = check.roundTrip(folder, game, seed);
+            if (failure != null) return failure + "\nIts replays are kept in " + folder;
+
+            try (var files = Files.list(folder)) {
+                for (Path file : files.toList()) Files.delete(file);
+            }
+            return null;
+        });
+        Files.delete(folder);
+
+        System.out.printf("%d games, %d inputs, %d frames: every replay played back to its game, every cheat caught%n",
+            games, check.inputs, check.frames);
+    }
+
+    /** Returns what went wrong, or null */
+    private String roundTrip(Path folder, int game, long seed) throws IOException {
+        Random random = new Random(seed);
+        long boardSeed = random.nextLong();
+        Board board = new Board(WIDTH, HEIGHT, boardSeed);
+        Replay.Recorder recorder = new Replay.Recorder(board, boardSeed);
+        Bot bot = new Bot();
+        long gameFrames = 0;
+
+        for (int pieces = 0; board.getGameState() == Board.GameState.Playing; pieces++) {
+            if (random.nextInt(200) == 0) {
+                perform(recorder, board, Replay.Action.Pause, 0);
+                gameFrames += wait(recorder, board, 30);
+                perform(recorder, board, Replay.Action.Pause, 0);
+            }
+
+            if (pieces < BOT_PIECES && bot.think(board)) {
+                if (bot.getBestType() != board.getCurrentPiece().getType()) {
+                    perform(recorder, board, Replay.Action.Hold, 0);
+                    gameFrames += wait(recorder, board, random.nextInt(3));
+                }
+
+                int rotation = bot.getBestRotation();
+                if (rotation == 3) perform(recorder, board, Replay.Action.RotateCounterclockwise, 0);
+                else for (int turn = 0; turn < rotation; turn++) {
+                    perform(recorder, board, Replay.Action.RotateClockwise, 0);
+                    gameFrames += wait(recorder, board, random.nextInt(4));
+                }
+
+                int columns = bot.getBestX() - board.getCurrentPiece().getCurrentPosition().x;
+                if (Math.abs(columns) > 2) perform(recorder, board, Replay.Action.Shift, columns);
+                else for (int step = 0; step < Math.abs(columns); step++) {
+                    perform(recorder, board, columns > 0 ? Replay.Action.MoveRight : Replay.Action.MoveLeft, 0);
+                    gameFrames += wait(recorder, board, random.nextInt(6));
+                }
+
+                if (random.nextInt(4) == 0) for (int step = 0; step < 3; step++) {
+                    perform(recorder, board, Replay.Action.SoftDrop, 0);
+                    gameFrames += wait(recorder, board, 2);
+                }
+                gameFrames += wait(recorder, board, random.nextInt(10));
+            }
+            perform(recorder, board, Replay.Action.HardDrop, 0);
+            gameFrames += wait(recorder, board, 1 + random.nextInt(20));
+        }
+        frames += gameFrames;
+
+        Path file = folder.resolve("game-" + game + ".bin");
+        recorder.save(file, board);
+        try {
+            recorder.save(file, board);
+            return "saving over an existing replay didn't fail";
+        } catch (FileAlreadyExistsException e) {
+            // Expected, replays are never overwritten
+        }
+
+        Replay replay = Replay.open(file);
+        Board played = replay.play();
+        if (replay.frames != gameFrames)
+            return "the replay is " + replay.frames + " frames long, the game was " + gameFrames;
+        if (played.stateHash() != board.stateHash() || played.getScore() != board.getScore() ||
+            played.getLinesCleared() != board.getLinesCleared() || played.getGameState() != board.getGameState())
+            return "played back to score " + played.getScore() + ", " + played.getLinesCleared() + " lines, " +
+                played.getGameState() + " but the game ended with score " + board.getScore() + ", " +
+                board.getLinesCleared() + " lines, " + board.getGameState();
+
+        if (!cheatingIsCaught(folder, game, boardSeed, random)) return "a cheated replay still checked out";
+        return null;
+    }
+
+    /**
+     * Plays a few recorded hard drops, then one that isn't recorded, and saves the replay,
+     * so it claims a result its inputs don't lead to. Returns whether playing it back shows that.
+     * */
+    private boolean cheatingIsCaught(Path folder, int game, long boardSeed, Random random) throws IOException {
+        Board board = new Board(WIDTH, HEIGHT, boardSeed);
+        Replay.Recorder recorder = new Replay.Recorder(board, boardSeed);
+        int recorded = random.nextInt(5); // Few enough that the game can't be over yet
+        for (int piece = 0; piece < recorded; piece++) {
+            perform(recorder, board, Replay.Action.HardDrop, 0);
+            wait(recorder, board, 1);
+        }
+        board.dropPiece();
+
+        Path file = folder.resolve("cheat-" + game + ".bin");
+        recorder.save(file, board);
+        Replay replay = Replay.open(file);
+        Board played = replay.play();
+        return played.stateHash() != replay.claimedStateHash || played.getScore() != replay.claimedScore;
+    }
+
+    private void perform(Replay.Recorder recorder, Board board, Replay.Action action, int argument) {
+        inputs++;
+        recorder.perform(board, action, argument);
+    }
+
+    /** Ticks the board that many frames, returns the amount */
+    private static int wait(Replay.Recorder recorder, Board board, int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            board.tick();
+            recorder.endFrame();
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,108 @@
+package tools;
+
+import game.Board;
+import game.Replay;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks the claimed results of recorded games (see Replay) by playing every one of them
+ * again, on a work stealing pool using every core. One line is printed per replay as soon
+ * as it is checked (in no particular order), then a summary: <br>
+ * `OK <file> <score> <lines>`, `MISMATCH <file> <what differs>` or `INVALID <file> <why>`. <br>
+ * Replays are read from memory-mapped files, and only a few per thread are queued at a time,
+ * so a directory of any size is checked without holding its replays in memory. <br>
+ * java -cp out tools.ReplayVerifier <directory> [threads] <br>
+ * Exits with 1 if any replay didn't check out.
+ * */
+public class ReplayVerifier {
+    private static final int QUEUED_PER_THREAD = 4;
+
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder framesPlayed = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: ReplayVerifier <directory> [threads]");
+            System.exit(1);
+        }
+
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ReplayVerifier verifier = new ReplayVerifier();
+        verifier.verifyDirectory(Path.of(args[0]), threads);
+        System.exit(verifier.mismatched.sum() + verifier.invalid.sum() == 0 ? 0 : 1);
+    }
+
+    private void verifyDirectory(Path directory, int threads) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        // Listing the directory goes no further ahead of the threads than this
+        Semaphore queued = new Semaphore(threads * QUEUED_PER_THREAD);
+        long startNanos = System.nanoTime();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path file : files) {
+                queued.acquire();
+                pool.execute(() -> {
+                    try {
+                        System.out.println(verify(file));
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long replays = verified.sum() + mismatched.sum() + invalid.sum();
+        System.out.printf(
+            "%d replays in %.1fs (%.0f per minute, %.1f hours of play) on %d threads: %d ok, %d mismatched, %d invalid%n",
+            replays, seconds, replays / seconds * 60, framesPlayed.sum() / 60.0 / 3600,
+            threads, verified.sum(), mismatched.sum(), invalid.sum()
+        );
+    }
+
+    /** Plays one replay and returns its report line */
+    private String verify(Path file) {
+        try {
+            Replay replay = Replay.open(file);
+            Board board = replay.play();
+            framesPlayed.add(replay.frames);
+
+            StringBuilder differences = new StringBuilder();
+            if (board.getGameState() != Board.GameState.Stopped)
+                differences.append(" game not over");
+            if (board.getScore() != replay.claimedScore)
+                differences.append(" score ").append(replay.claimedScore).append(" != ").append(board.getScore());
+            if (board.getLinesCleared() != replay.claimedLines)
+                differences.append(" lines ").append(replay.claimedLines).append(" != ").append(board.getLinesCleared());
+            if (board.stateHash() != replay.claimedStateHash)
+                differences.append(" board hash");
+
+            if (!differences.isEmpty()) {
+                mismatched.increment();
+                return "MISMATCH " + file.getFileName() + differences;
+            }
+
+            verified.increment();
+            return "OK " + file.getFileName() + " " + replay.claimedScore + " " + replay.claimedLines;
+
+        } catch (IOException | RuntimeException e) {
+            // Anything could be in a submitted file, none of it should stop the others from being checked
+            invalid.increment();
+            return "INVALID " + file.getFileName() + " " + e.getMessage();
+        }
+    }
+}
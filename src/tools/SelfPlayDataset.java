@@ -0,0 +1,316 @@
+package tools;
+
+import game.Board;
+import game.Tetromino;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A columnar file of self-play positions, one row per placement: the board before it,
+ * the piece, hold and queue, the placement that was chosen, and the outcome of the game
+ * from there on, along with whether the game really ended or was cut off before that.
+ * Used for training models on the bots' games. <br> <br>
+ * Layout: a header page, followed by row groups that all have the same size. A group
+ * holds up to ROWS_PER_GROUP rows, stored column after column, every column being a
+ * fixed amount of bytes per row (see Column), so a single column of a group is one
+ * contiguous slice of the file. <br>
+ * Every Writer reserves whole groups for itself (an atomic counter gives out group
+ * indices, which are also their position in the file) and writes them through its own
+ * memory mapping, so any amount of writers can fill the same file without locking. <br>
+ * All numbers are little endian.
+ * */
+public class SelfPlayDataset implements Closeable {
+    public static final int ROWS_PER_GROUP = 1 << 16;
+    public static final int QUEUE_LENGTH = 4; // The queue never holds less than 4 pieces
+
+    private static final long MAGIC = 0x31594C5053534B42L; // "BKSSPLY1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4096;
+    private static final int GROUP_HEADER_BYTES = 64; // The amount of rows written in the group, then padding
+
+    // Header fields
+    private static final int HEADER_WIDTH = 12;
+    private static final int HEADER_HEIGHT = 16;
+    private static final int HEADER_ROWS_PER_GROUP = 20;
+    private static final int HEADER_COLUMN_COUNT = 24;
+    private static final int HEADER_COLUMNS = 32; // The bytes per row of every column, one int each
+
+    /**
+     * The columns, in the order they are stored within a group. <br>
+     * GRID: the static blocks, one bit per cell (bit `row * width + col`), padded to whole longs.
+     * PIECE: the current piece, as its Tetromino.Type ordinal.
+     * HOLD: the held piece, its ordinal + 1, or 0 for none.
+     * QUEUE: the next QUEUE_LENGTH pieces, as ordinals.
+     * PLACEMENT: the piece that was placed (different from PIECE if it was swapped with hold),
+     * the amount of clockwise rotations, and the column, one byte each.
+     * OUTCOME: the lines the game went on to clear from this placement until it ended, as an int.
+     * Only until it was cut off, if it was (see ENDING), so it is no full game's worth then.
+     * ENDING: how the game ended, as its Ending ordinal.
+     * */
+    public enum Column {
+        GRID,
+        PIECE,
+        HOLD,
+        QUEUE,
+        PLACEMENT,
+        OUTCOME,
+        ENDING;
+
+        int bytesPerRow(int boardWidth, int boardHeight) {
+            return switch (this) {
+                case GRID -> (boardWidth * boardHeight + 63) / 64 * 8;
+                case PIECE, HOLD, ENDING -> 1;
+                case QUEUE -> QUEUE_LENGTH;
+                case PLACEMENT -> 3;
+                case OUTCOME -> 4;
+            };
+        }
+    }
+
+    /**
+     * How the game of a row ended. GameOver: it topped out, so OUTCOME counts the lines until the end.
+     * Truncated: it was cut off while still going (the exporter stops games after a number of
+     * pieces, and a game still being written when its Writer is closed stays like that), so
+     * OUTCOME only counts the lines until the cut, however long the game would have gone on.
+     * */
+    public enum Ending {
+        Truncated,
+        GameOver
+    }
+
+    public final int boardWidth;
+    public final int boardHeight;
+
+    private final FileChannel channel;
+    private final boolean writable;
+    private final int[] columnBytes = new int[Column.values().length];
+    private final long[] columnOffsets = new long[Column.values().length]; // Within a group
+    private final long groupBytes;
+    private final AtomicLong nextGroup = new AtomicLong();
+
+    private SelfPlayDataset(FileChannel channel, boolean writable, int boardWidth, int boardHeight) {
+        this.channel = channel;
+        this.writable = writable;
+        this.boardWidth = boardWidth;
+        this.boardHeight = boardHeight;
+
+        long offset = GROUP_HEADER_BYTES;
+        for (Column column : Column.values()) {
+            columnBytes[column.ordinal()] = column.bytesPerRow(boardWidth, boardHeight);
+            columnOffsets[column.ordinal()] = offset;
+            offset += (long) columnBytes[column.ordinal()] * ROWS_PER_GROUP;
+        }
+        groupBytes = offset;
+    }
+
+    /** Creates (or replaces) a dataset file for boards of that size */
+    public static SelfPlayDataset create(Path file, int boardWidth, int boardHeight) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SelfPlayDataset dataset = new SelfPlayDataset(channel, true, boardWidth, boardHeight);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, MAGIC);
+        header.putInt(8, VERSION);
+        header.putInt(HEADER_WIDTH, boardWidth);
+        header.putInt(HEADER_HEIGHT, boardHeight);
+        header.putInt(HEADER_ROWS_PER_GROUP, ROWS_PER_GROUP);
+        header.putInt(HEADER_COLUMN_COUNT, Column.values().length);
+        for (Column column : Column.values())
+            header.putInt(HEADER_COLUMNS + column.ordinal() * 4, dataset.columnBytes[column.ordinal()]);
+        channel.write(header, 0);
+        return dataset;
+    }
+
+    /** Opens an existing dataset file for reading */
+    public static SelfPlayDataset open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            channel.close();
+            throw new IOException(file + " is not a self-play dataset (or from an other version)");
+        }
+        if (header.getInt(HEADER_ROWS_PER_GROUP) != ROWS_PER_GROUP ||
+            header.getInt(HEADER_COLUMN_COUNT) != Column.values().length) {
+            channel.close();
+            throw new IOException(file + " has an unsupported layout");
+        }
+
+        SelfPlayDataset dataset = new SelfPlayDataset(
+            channel, false, header.getInt(HEADER_WIDTH), header.getInt(HEADER_HEIGHT)
+        );
+        // Reserving a group maps all of it, which makes the file grow by whole groups
+        dataset.nextGroup.set((channel.size() - HEADER_BYTES) / dataset.groupBytes);
+        return dataset;
+    }
+
+    /** A new writer, every writing thread needs its own */
+    public Writer newWriter() {
+        if (!writable) throw new IllegalStateException("The dataset was opened for reading");
+        return new Writer();
+    }
+
+    /** Writers need to be closed first. Mapped groups are written back by the OS, even after closing */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private MappedByteBuffer mapGroup(long group, FileChannel.MapMode mode) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, HEADER_BYTES + group * groupBytes, groupBytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+
+    // Writing
+
+    /**
+     * Appends rows to groups of its own. Not thread safe, one per thread. <br>
+     * The outcome of a row is only known once its game ends, so until endGame is called
+     * the OUTCOME column holds the lines cleared before the row, ENDING says Truncated, and
+     * the groups of the game being recorded stay mapped so they can be filled in.
+     * */
+    public class Writer implements Closeable {
+        private MappedByteBuffer group;
+        private int groupRows;
+
+        // Where the current game started, every group it is in stays here until it ends
+        private final List<MappedByteBuffer> gameGroups = new ArrayList<>();
+        private int gameStartRow;
+
+        private final byte[] cells = new byte[boardWidth * boardHeight];
+
+        private Writer() { }
+
+        /** Records the board as it is right before `placement` gets played on it */
+        public void addRow(Board board, Tetromino.Type placedType, int rotation, int x) throws IOException {
+            if (group == null || groupRows == ROWS_PER_GROUP) nextGroup();
+            int row = groupRows;
+
+            // Grid, packed 64 cells per long
+            board.copyCells(cells);
+            long gridOffset = columnOffsets[Column.GRID.ordinal()] + (long) row * columnBytes[Column.GRID.ordinal()];
+            for (int word = 0; word * 64 < cells.length; word++) {
+                long bits = 0;
+                int end = Math.min(cells.length, word * 64 + 64);
+                for (int cell = word * 64; cell < end; cell++)
+                    if (cells[cell] != 0) bits |= 1L << (cell - word * 64);
+                group.putLong((int) gridOffset + word * 8, bits);
+            }
+
+            Tetromino.Type held = board.getHeldPieceType();
+            group.put(offset(Column.PIECE, row), (byte) board.getCurrentPiece().getType().ordinal());
+            group.put(offset(Column.HOLD, row), (byte) (held == null ? 0 : held.ordinal() + 1));
+
+            int queue = offset(Column.QUEUE, row);
+            for (int index = 0; index < QUEUE_LENGTH; index++)
+                group.put(queue + index, (byte) board.getNextPiece(index).ordinal());
+
+            int placement = offset(Column.PLACEMENT, row);
+            group.put(placement, (byte) placedType.ordinal());
+            group.put(placement + 1, (byte) rotation);
+            group.put(placement + 2, (byte) x);
+
+            // Replaced by the actual outcome in endGame
+            group.putInt(offset(Column.OUTCOME, row), board.getLinesCleared());
+            group.put(offset(Column.ENDING, row), (byte) Ending.Truncated.ordinal());
+
+            groupRows++;
+            group.putInt(0, groupRows);
+        }
+
+        /**
+         * Fills in the outcome of every row of the game that just ended, `linesCleared` being its final count.
+         * `gameOver` is false for a game that was cut off while it was still going.
+         * */
+        public void endGame(int linesCleared, boolean gameOver) {
+            Ending ending = gameOver ? Ending.GameOver : Ending.Truncated;
+            for (int index = 0; index < gameGroups.size(); index++) {
+                MappedByteBuffer buffer = gameGroups.get(index);
+                int firstRow = index == 0 ? gameStartRow : 0;
+                int rows = buffer.getInt(0);
+                for (int row = firstRow; row < rows; row++) {
+                    int outcome = offset(Column.OUTCOME, row);
+                    buffer.putInt(outcome, linesCleared - buffer.getInt(outcome));
+                    buffer.put(offset(Column.ENDING, row), (byte) ending.ordinal());
+                }
+            }
+
+            gameGroups.clear();
+            if (group != null) gameGroups.add(group);
+            gameStartRow = groupRows;
+        }
+
+        private void nextGroup() throws IOException {
+            group = mapGroup(nextGroup.getAndIncrement(), FileChannel.MapMode.READ_WRITE);
+            groupRows = 0;
+            group.putInt(0, 0);
+
+            if (gameGroups.isEmpty()) gameStartRow = 0;
+            gameGroups.add(group);
+        }
+
+        private int offset(Column column, int row) {
+            return (int) (columnOffsets[column.ordinal()] + (long) row * columnBytes[column.ordinal()]);
+        }
+
+        /** Rows of an unfinished game are kept, Truncated with their outcome left as it is */
+        @Override
+        public void close() {
+            gameGroups.clear();
+            group = null;
+        }
+    }
+
+
+    // Reading
+
+    public long getGroupCount() {
+        return nextGroup.get();
+    }
+
+    /** Maps a group for reading, columns are then read with getColumn */
+    public MappedByteBuffer readGroup(long group) throws IOException {
+        return mapGroup(group, FileChannel.MapMode.READ_ONLY);
+    }
+
+    public static int getRowCount(ByteBuffer group) {
+        return group.getInt(0);
+    }
+
+    /**
+     * The values of one column for every row of a group, straight from the mapped file:
+     * `getColumnBytes(column)` bytes per row, rows one after the other. Nothing else of
+     * the rows is read.
+     * */
+    public ByteBuffer getColumn(ByteBuffer group, Column column) {
+        int offset = (int) columnOffsets[column.ordinal()];
+        int length = getRowCount(group) * columnBytes[column.ordinal()];
+        return group.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getColumnBytes(Column column) {
+        return columnBytes[column.ordinal()];
+    }
+
+    /** Whether that cell is filled, in the GRID column of a group (see getColumn) */
+    public boolean isFilled(ByteBuffer grid, int row, int x, int y) {
+        int cell = y * boardWidth + x;
+        long word = grid.getLong(row * columnBytes[Column.GRID.ordinal()] + cell / 64 * 8);
+        return (word >>> (cell % 64) & 1) != 0;
+    }
+}
@@ -0,0 +1,147 @@
+package tools;
+
+import game.Board;
+import game.Bot;
+import game.Tetromino;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays bot games headlessly on every core and writes every placement into a SelfPlayDataset.
+ * Game `n` uses seed `n`, so an export can be reproduced. Given a PositionDatabase as `book`,
+ * the bots play its best continuation wherever it has one (see Bot.Book). <br>
+ * Export: java -cp out tools.SelfPlayExport <file> [games] [threads] [book] <br>
+ * Scan a few columns of an export back: java -cp out tools.SelfPlayExport --scan <file>
+ * */
+public class SelfPlayExport {
+    private static final int DEFAULT_GAMES = 2_000;
+    private static final int BOARD_WIDTH = 10;
+    private static final int BOARD_HEIGHT = 22;
+    // The bots rarely top out on their own, so games are cut off there (their rows are Truncated)
+    private static final int MAX_PIECES_PER_GAME = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: SelfPlayExport <file> [games] [threads] [book] | SelfPlayExport --scan <file>");
+            System.exit(1);
+        }
+
+        if (args[0].equals("--scan")) {
+            scan(Path.of(args[1]));
+            return;
+        }
+
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_GAMES;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        if (args.length > 3) {
+            try (PositionDatabase book = PositionDatabase.open(Path.of(args[3]))) {
+                export(Path.of(args[0]), games, threads, book);
+            }
+        } else {
+            export(Path.of(args[0]), games, threads, null);
+        }
+    }
+
+    private static void export(Path file, int games, int threadCount, Bot.Book book) throws Exception {
+        AtomicInteger nextGame = new AtomicInteger();
+        LongAdder rows = new LongAdder();
+        LongAdder bookRows = new LongAdder();
+        long startNanos = System.nanoTime();
+
+        try (SelfPlayDataset dataset = SelfPlayDataset.create(file, BOARD_WIDTH, BOARD_HEIGHT)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int index = 0; index < threadCount; index++) {
+                Thread thread = new Thread(() -> {
+                    try (SelfPlayDataset.Writer writer = dataset.newWriter()) {
+                        Bot bot = new Bot();
+                        bot.setBook(book);
+                        for (int game = nextGame.getAndIncrement(); game < games; game = nextGame.getAndIncrement())
+                            rows.add(playGame(game, bot, writer, bookRows));
+
+                    } catch (IOException e) {
+                        System.err.println("Failed to write to " + file);
+                        e.printStackTrace();
+                    }
+                }, "self-play-" + index);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) thread.join();
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf(
+            "%d games, %d rows in %.1fs (%.1f million rows per minute) on %d threads%n",
+            games, rows.sum(), seconds, rows.sum() / seconds * 60 / 1e6, threadCount
+        );
+        if (book != null) System.out.printf("%d placements came from the book%n", bookRows.sum());
+    }
+
+    /** Plays one game, writing a row for every placement, and returns the amount of rows */
+    private static int playGame(long seed, Bot bot, SelfPlayDataset.Writer writer, LongAdder bookRows) throws IOException {
+        Board board = new Board(BOARD_WIDTH, BOARD_HEIGHT, seed);
+        int pieces = 0;
+
+        while (pieces < MAX_PIECES_PER_GAME && board.getGameState() == Board.GameState.Playing) {
+            if (!bot.think(board)) break;
+            writer.addRow(board, bot.getBestType(), bot.getBestRotation(), bot.getBestX());
+            if (bot.isFromBook()) bookRows.increment();
+            bot.play(board);
+            pieces++;
+        }
+
+        writer.endGame(board.getLinesCleared(), board.getGameState() == Board.GameState.Stopped);
+        return pieces;
+    }
+
+    /** Reads only the PIECE, OUTCOME, ENDING and GRID columns, as an example of scanning the format */
+    private static void scan(Path file) throws IOException {
+        long startNanos = System.nanoTime();
+        long rows = 0, outcomeSum = 0, filledCells = 0;
+        long gameOverRows = 0, gameOverOutcomeSum = 0;
+        long[] pieceCounts = new long[Tetromino.PIECE_TYPES.length];
+
+        try (SelfPlayDataset dataset = SelfPlayDataset.open(file)) {
+            int gridBytes = dataset.getColumnBytes(SelfPlayDataset.Column.GRID);
+
+            for (long group = 0; group < dataset.getGroupCount(); group++) {
+                ByteBuffer buffer = dataset.readGroup(group);
+                int groupRows = SelfPlayDataset.getRowCount(buffer);
+                rows += groupRows;
+
+                ByteBuffer pieces = dataset.getColumn(buffer, SelfPlayDataset.Column.PIECE);
+                ByteBuffer outcomes = dataset.getColumn(buffer, SelfPlayDataset.Column.OUTCOME);
+                ByteBuffer endings = dataset.getColumn(buffer, SelfPlayDataset.Column.ENDING);
+                ByteBuffer grids = dataset.getColumn(buffer, SelfPlayDataset.Column.GRID);
+                for (int row = 0; row < groupRows; row++) {
+                    pieceCounts[pieces.get(row)]++;
+                    outcomeSum += outcomes.getInt(row * 4);
+                    if (endings.get(row) == SelfPlayDataset.Ending.GameOver.ordinal()) {
+                        gameOverRows++;
+                        gameOverOutcomeSum += outcomes.getInt(row * 4);
+                    }
+                }
+                for (int word = 0; word < groupRows * gridBytes / 8; word++)
+                    filledCells += Long.bitCount(grids.getLong(word * 8));
+            }
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%d rows scanned in %.2fs%n", rows, seconds);
+        if (rows == 0) return;
+
+        System.out.printf("Average outcome: %.1f lines to go, average stack: %.1f cells%n",
+                          (double) outcomeSum / rows, (double) filledCells / rows);
+        // The outcome of a truncated game only goes up to the cut, so those are told apart
+        System.out.printf("%.1f%% of the rows are from games that ended (%.1f lines to go), the rest were cut off%n",
+                          100.0 * gameOverRows / rows, gameOverRows == 0 ? 0 : (double) gameOverOutcomeSum / gameOverRows);
+        for (Tetromino.Type type : Tetromino.PIECE_TYPES)
+            System.out.printf("  %-8s %5.1f%%%n", type, 100.0 * pieceCounts[type.ordinal()] / rows);
+    }
+}
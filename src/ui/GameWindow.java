@@ -1,9 +1,14 @@
 package ui;
 
+import common.GraphicsUtils;
 import common.ResourceManager;
+import common.StartupTimer;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.concurrent.CompletableFuture;
 
 public class GameWindow extends JFrame {
     // The panel used for switching between MenuPanel and PlayAreaPanel
@@ -15,30 +20,44 @@ public class GameWindow extends JFrame {
     // The values here refer to how many blocks there are in the window's X or Y axis.
     public static final int BLOCKS_HEIGHT = 24; // Y axis
     public static final int BLOCKS_WIDTH = 16; // X axis
+    public static final int BASE_BLOCK_SIZE = 20; // Block size in pixels at a guiScale of 1
+    public static final int VERSUS_BLOCKS_WIDTH = 12; // Extra X axis blocks for the opponents in versus mode
 
-    // Dictates the size of the UI while retaining UI component size ratios
+    // How much of the screen height the window takes up when it first opens
+    private static final double INITIAL_SCREEN_FRACTION = 0.75;
+    private static final double MIN_GUI_SCALE = 1;
+
+    // Dictates the size of the UI while retaining UI component size ratios.
+    // Can be fractional, it follows the size of the window when resized.
     public double guiScale;
+    public boolean resourcesLoaded; // Only changed on the Swing UI Thread
+    private int blocksWidth = BLOCKS_WIDTH; // Includes the versus opponents area when it is shown
 
     public GameWindow() {
-        // Get your current screen height and use that to determine the
-        // correct GUI scaling for you.
-        // Note : Sometimes may calculate the wrong gui-scaling value for 4K+ screens.
-//        this((int) (Toolkit.getDefaultToolkit().getScreenSize().getHeight() / 24 / 20));
-        this(1);
+        // Use your current screen height to determine the initial GUI scaling.
+        // Since Java 9 the screen size is given in "logical" pixels, which already has the
+        // operating system's HiDPI scaling applied, so this is also correct on 4K+ screens.
+        this(Math.max(
+            MIN_GUI_SCALE,
+            Toolkit.getDefaultToolkit().getScreenSize().getHeight() * INITIAL_SCREEN_FRACTION /
+                (BLOCKS_HEIGHT * BASE_BLOCK_SIZE)
+        ));
     }
 
-    public GameWindow(int guiScale) {
+    public GameWindow(double guiScale) {
         // JFrame Setup
         super("Blocks: Stacking Game");
-        setResizable(false);
-        setLocationRelativeTo(null); // null = Center of the screen
+        setResizable(true);
         setDefaultCloseOperation(EXIT_ON_CLOSE); // So it would close, instead of going in the background
-        setIconImage(ResourceManager.loadImage("icon.png"));
+        // The icon is decoded in the background, no need to wait for it to show the window
+        ResourceManager.loadImageAsync("icon.png").thenAccept(icon ->
+            SwingUtilities.invokeLater(() -> setIconImage(icon))
+        );
 
         // Panels Setup
+        this.guiScale = guiScale;
         this.menuPanel = new MenuPanel(this);
         this.playAreaPanel = new PlayAreaPanel();
-        this.guiScale = guiScale;
 
         // Add Panels
         cards.add(menuPanel, "MenuPanel");
@@ -48,18 +67,86 @@ public class GameWindow extends JFrame {
         setCurrentPanel("MenuPanel");
         menuPanel.grabFocus(); // Allow for key listener
 
+        // Bake the block textures of every pack in the background: at the real pixel size of
+        // this gui scale on this screen (HiDPI), and at the base size clips are recorded at.
+        // Only once the menu is drawn complete, it doesn't need them.
+        double deviceScale = getGraphicsConfiguration().getDefaultTransform().getScaleX();
+        int deviceBlockSize = (int) Math.round(getBlockSize() * deviceScale);
+        StartupTimer.afterFirstCompleteFrame()
+            .thenCompose(drawn -> CompletableFuture.allOf(
+                ResourceManager.prepareTexturePacks(deviceBlockSize),
+                ResourceManager.prepareTexturePacks(BASE_BLOCK_SIZE)
+            ))
+            .whenComplete((baked, failure) -> StartupTimer.markTexturesBaked());
+
+        // Follow the window size, the layout and every cache only changes when the scale does
+        cards.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                updateGuiScale();
+            }
+        });
+
         getContentPane().add(cards);
         pack();
+        updateMinimumSize();
+        setLocationRelativeTo(null); // null = Center of the screen
         setVisible(true);
     }
 
+    /** Fit the game area inside the current window size */
+    private void updateGuiScale() {
+        double newGuiScale = Math.max(MIN_GUI_SCALE, Math.min(
+            cards.getWidth() / (double) (blocksWidth * BASE_BLOCK_SIZE),
+            cards.getHeight() / (double) (BLOCKS_HEIGHT * BASE_BLOCK_SIZE)
+        ));
+
+        if (newGuiScale == guiScale) return;
+        guiScale = newGuiScale;
+        playAreaPanel.rescale(getScreenWidth(), getScreenHeight(), guiScale);
+        repaint();
+    }
+
+    /**
+     * Called on the Swing UI Thread once the font and ui images finished preloading,
+     * anything painted before that only drew the background.
+     * */
+    public void onResourcesLoaded() {
+        if (resourcesLoaded) return;
+        resourcesLoaded = true;
+        StartupTimer.markResourcesLoaded();
+        GraphicsUtils.clearFontCache();
+        repaint();
+    }
+
+    /** Makes the window wider to fit the opponents of versus mode (or narrow again) */
+    public void setVersusLayout(boolean versus) {
+        int newBlocksWidth = BLOCKS_WIDTH + (versus ? VERSUS_BLOCKS_WIDTH : 0);
+        if (newBlocksWidth == blocksWidth) return;
+
+        blocksWidth = newBlocksWidth;
+        updateMinimumSize();
+        pack(); // The panels' preferred sizes use getScreenWidth()
+    }
+
+    /** The window can be resized down to the game at MIN_GUI_SCALE, the insets are only known once packed */
+    private void updateMinimumSize() {
+        Insets insets = getInsets();
+        setMinimumSize(new Dimension(
+            (int) (blocksWidth * BASE_BLOCK_SIZE * MIN_GUI_SCALE) + insets.left + insets.right,
+            (int) (BLOCKS_HEIGHT * BASE_BLOCK_SIZE * MIN_GUI_SCALE) + insets.top + insets.bottom
+        ));
+    }
+
     /** Switch the current visible panel */
     public void setCurrentPanel(String panelName) {
         CardLayout layout = (CardLayout) cards.getLayout();
         layout.show(cards, panelName);
     }
 
-    // Screen width and heights calculated based on GUI scaling modifier
-    public int getScreenWidth() { return (int) (BLOCKS_WIDTH * (guiScale * 20)); }
-    public int getScreenHeight() { return (int) (BLOCKS_HEIGHT * (guiScale * 20)); }
+    // Block size and screen width and heights calculated based on GUI scaling modifier.
+    // The block size is rounded down, so every block starts at an exact pixel.
+    public int getBlockSize() { return (int) (BASE_BLOCK_SIZE * guiScale); }
+    public int getScreenWidth() { return blocksWidth * getBlockSize(); }
+    public int getScreenHeight() { return BLOCKS_HEIGHT * getBlockSize(); }
 }
@@ -2,31 +2,77 @@ package ui;
 
 import common.GraphicsUtils;
 import common.ResourceManager;
+import common.StartupTimer;
+import game.SessionStats;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class MenuPanel extends JPanel {
     private final GameWindow parent;
+    private BufferedImage enterKeyImage; // Loaded once in the background, null until then
+
+    // Past games from the stats log, read in the background at startup. H shows them instead of the menu
+    private static final int HISTORY_GAMES = 12;
+    private List<SessionStats.Summary> history = List.of();
+    private boolean showHistory;
 
     public MenuPanel(GameWindow gameWindow) {
         setFocusable(true); // A component needs to be focusable to use a KeyListener
         parent = gameWindow;
 
+        // Usually already preloaded, then it's there for the first paint
+        CompletableFuture<BufferedImage> enterKeyLoad = ResourceManager.loadImageAsync("enter-key.png");
+        if (enterKeyLoad.isDone()) enterKeyImage = enterKeyLoad.join();
+        else enterKeyLoad.thenAccept(image ->
+            SwingUtilities.invokeLater(() -> {
+                enterKeyImage = image;
+                repaint();
+            })
+        );
+
+        // Only shown on H, so it doesn't need to be read before the menu is drawn
+        StartupTimer.afterFirstCompleteFrame().thenCompose(drawn -> ResourceManager.loadStatsLogAsync()).thenAccept(lines -> {
+            List<SessionStats.Summary> summaries = new ArrayList<>();
+            for (String line : lines) {
+                SessionStats.Summary summary = SessionStats.Summary.fromLogLine(line);
+                if (summary != null) summaries.add(summary);
+            }
+            SwingUtilities.invokeLater(() -> {
+                history = summaries;
+                repaint();
+            });
+        });
+
         // Add KeyListener
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                if (e.getKeyCode() != KeyEvent.VK_ENTER) return;
-
+                int key = e.getKeyCode();
+                if (key == KeyEvent.VK_H) {
+                    showHistory = !showHistory;
+                    repaint();
+                    return;
+                }
+                if (key != KeyEvent.VK_ENTER && key != KeyEvent.VK_V) return;
+
+                boolean versus = key == KeyEvent.VK_V;
+                parent.setVersusLayout(versus);
                 parent.setCurrentPanel("PlayAreaPanel");
                 parent.playAreaPanel.grabFocus();
                 parent.playAreaPanel.start(
                         parent.getScreenWidth(),
                         parent.getScreenHeight(),
-                        parent.guiScale
+                        parent.guiScale,
+                        versus
                 );
             }
         });
@@ -48,8 +94,9 @@ public class MenuPanel extends JPanel {
 
     @Override
     public void paintComponent(Graphics graphics) {
-        int screenWidth = parent.getScreenWidth();
-        int screenHeight = parent.getScreenHeight();
+        // The menu is simply centered within the whole (possibly resized) panel
+        int screenWidth = getWidth();
+        int screenHeight = getHeight();
 
         // `graphics` is actually an instance of Graphics2D since you cannot
         // create an instance of Graphics (it's an abstract class)
@@ -59,6 +106,17 @@ public class MenuPanel extends JPanel {
         // Draw Background
         utils.drawBackground();
 
+        // Text in the fallback font would only flash by, and setting it up takes about as long as the real font
+        if (!parent.resourcesLoaded) {
+            StartupTimer.markFrameDrawn();
+            return;
+        }
+
+        if (showHistory) {
+            drawHistory(g, utils);
+            return;
+        }
+
         // Draw Foreground
         g.setColor(utils.FG_TEXT_COLOR);
         utils.drawCenteredText(
@@ -75,8 +133,8 @@ public class MenuPanel extends JPanel {
 
         int imageSize = (int) (100 * parent.guiScale);
         int imageOffset = imageSize / 2;
-        g.drawImage(
-            ResourceManager.loadImage("enter-key.png"),
+        if (enterKeyImage != null) g.drawImage(
+            enterKeyImage,
             screenWidth / 2 - imageOffset, screenHeight / 2 - imageOffset, // X and Y Position
             imageSize, imageSize, // X and Y Size
             null
@@ -87,5 +145,68 @@ public class MenuPanel extends JPanel {
             utils.PLAIN_FONT,
             screenHeight / 2 + imageOffset + (int) (20 * parent.guiScale)
         );
+        utils.drawCenteredText(
+            "Press V for Versus.",
+            utils.PLAIN_FONT,
+            screenHeight / 2 + imageOffset + (int) (20 * parent.guiScale) + utils.PLAIN_FONT.getSize() + 10
+        );
+        utils.drawCenteredText(
+            "Press H for History.",
+            utils.PLAIN_FONT,
+            screenHeight / 2 + imageOffset + (int) (20 * parent.guiScale) + (utils.PLAIN_FONT.getSize() + 10) * 2
+        );
+
+        StartupTimer.markFrameDrawn();
+    }
+
+    /** The most recent games first, with the averages and bests of every logged game */
+    private void drawHistory(Graphics2D g, GraphicsUtils utils) {
+        Font font = utils.SIDE_PANEL_FONT;
+        int lineHeight = font.getSize() + (int) (6 * parent.guiScale);
+        int yPos = utils.HEADER_FONT.getSize() + 20;
+
+        g.setColor(utils.FG_TEXT_COLOR);
+        utils.drawCenteredText("HISTORY", utils.HEADER_FONT, yPos);
+        yPos += utils.PLAIN_FONT.getSize() * 2;
+
+        if (history.isEmpty()) {
+            utils.drawCenteredText("No finished games yet.", utils.PLAIN_FONT, yPos);
+        } else {
+            double piecesPerSecond = 0, actionsPerMinute = 0, bestPiecesPerSecond = 0;
+            int bestScore = 0;
+            for (SessionStats.Summary summary : history) {
+                piecesPerSecond += summary.piecesPerSecond();
+                actionsPerMinute += summary.actionsPerMinute();
+                bestPiecesPerSecond = Math.max(bestPiecesPerSecond, summary.piecesPerSecond());
+                bestScore = Math.max(bestScore, summary.score());
+            }
+
+            utils.drawCenteredText(
+                String.format("%d games, average %.2f PPS %.0f APM", history.size(),
+                              piecesPerSecond / history.size(), actionsPerMinute / history.size()),
+                font, yPos
+            );
+            utils.drawCenteredText(
+                String.format("best %.2f PPS, best score %d", bestPiecesPerSecond, bestScore),
+                font, yPos + lineHeight
+            );
+            yPos += lineHeight * 3;
+
+            SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm");
+            for (int index = history.size() - 1; index >= Math.max(0, history.size() - HISTORY_GAMES); index--) {
+                SessionStats.Summary summary = history.get(index);
+                utils.drawCenteredText(
+                    String.format(
+                        "%s %7d %3dL %.2fPPS %3.0fAPM",
+                        dateFormat.format(new Date(summary.endTime())), summary.score(), summary.lines(),
+                        summary.piecesPerSecond(), summary.actionsPerMinute()
+                    ),
+                    font, yPos
+                );
+                yPos += lineHeight;
+            }
+        }
+
+        utils.drawCenteredText("Press H to go back.", utils.PLAIN_FONT, getHeight() - utils.PLAIN_FONT.getSize() * 2);
     }
 }
@@ -0,0 +1,142 @@
+package ui;
+
+import common.ResourceManager;
+import game.BoardSnapshot;
+import game.Tetromino;
+import game.VersusMatch;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Renders every versus opponent as a miniature board, as tiles of one shared image.
+ * The tiles are written straight into the image's pixel array by the match's worker
+ * threads (every worker owns different tiles, so they never touch the same pixels),
+ * after each simulation tick. Two images are used, so the Swing UI Thread always
+ * draws a complete one while the next one is being rendered.
+ * */
+public class OpponentMinimap {
+    private static final int CELL_SIZE = 2; // Pixels per block
+    private static final int TILE_GAP = 2; // Pixels between the miniature boards
+    private static final int BG_COLOR = 0xFF2B2D31;
+    private static final int EMPTY_COLOR = 0xFF1E1F22;
+    private static final int DEAD_COLOR = 0xFF5C2B2E; // Empty cells of eliminated opponents
+    private static final int DEAD_BLOCK_COLOR = 0xFF7A3A3E; // Blocks of eliminated opponents
+
+    private final VersusMatch match;
+    private final int columns;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int boardWidth;
+    private final int boardHeight;
+
+    private BufferedImage front; // Drawn by the Swing UI Thread
+    private BufferedImage back; // Rendered by the workers
+    private final Object swapLock = new Object();
+
+    // Color of each cell value (0 = empty, else Tetromino.Type ordinal + 1),
+    // taken from the middle pixel of each texture of the current texture pack.
+    private volatile int[] palette;
+
+    // Time spent rendering the whole minimap (only written by the clock thread)
+    private volatile long renderNanos;
+    private volatile long renders;
+
+    public OpponentMinimap(VersusMatch match, int boardWidth, int boardHeight) {
+        this.match = match;
+        this.boardWidth = boardWidth;
+        this.boardHeight = boardHeight;
+
+        // Make the grid roughly as wide as the side area is (12 by 24 blocks)
+        int count = match.getOpponentCount();
+        tileWidth = boardWidth * CELL_SIZE + TILE_GAP;
+        tileHeight = boardHeight * CELL_SIZE + TILE_GAP;
+        columns = Math.max(1, (int) Math.ceil(Math.sqrt(count * (double) tileHeight / tileWidth / 2)));
+        int rows = (count + columns - 1) / columns;
+
+        front = createImage(columns * tileWidth, rows * tileHeight);
+        back = createImage(columns * tileWidth, rows * tileHeight);
+        updatePalette();
+    }
+
+    private static BufferedImage createImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /** Re-reads the block colors, called when the texture pack changes */
+    public void updatePalette() {
+        int[] colors = new int[Tetromino.Type.values().length + 1];
+        colors[0] = EMPTY_COLOR;
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            String texture = type == Tetromino.Type.Garbage ? "Border" : type.name();
+            BufferedImage tile = ResourceManager.loadBlockTexture(texture, GameWindow.BASE_BLOCK_SIZE);
+            colors[type.ordinal() + 1] = tile == null
+                ? 0xFF808080
+                : tile.getRGB(tile.getWidth() / 2, tile.getHeight() / 2);
+        }
+        palette = colors;
+    }
+
+    /** Renders the latest opponent snapshots in parallel, called on the match's clock thread */
+    public void render() {
+        long startNanos = System.nanoTime();
+
+        BufferedImage target = back;
+        int[] pixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        int imageWidth = target.getWidth();
+        int[] colors = palette;
+
+        match.runParallel(match.getOpponentCount(), index ->
+            renderTile(pixels, imageWidth, colors, index, match.getOpponentSnapshot(index))
+        );
+
+        synchronized (swapLock) {
+            back = front;
+            front = target;
+        }
+
+        renderNanos += System.nanoTime() - startNanos;
+        renders++;
+    }
+
+    private void renderTile(int[] pixels, int imageWidth, int[] colors, int index, BoardSnapshot snapshot) {
+        int tileX = (index % columns) * tileWidth;
+        int tileY = (index / columns) * tileHeight;
+
+        // Gap around the tile
+        for (int y = 0; y < tileHeight; y++) {
+            int rowStart = (tileY + y) * imageWidth + tileX;
+            for (int x = 0; x < tileWidth; x++) pixels[rowStart + x] = BG_COLOR;
+        }
+
+        int offset = TILE_GAP / 2;
+        for (int row = 0; row < boardHeight; row++) {
+            for (int col = 0; col < boardWidth; col++) {
+                int cell = snapshot.getCell(col, row);
+                int color = snapshot.alive ? colors[cell] : cell == 0 ? DEAD_COLOR : DEAD_BLOCK_COLOR;
+
+                int pixelStart = (tileY + offset + row * CELL_SIZE) * imageWidth + tileX + offset + col * CELL_SIZE;
+                for (int y = 0; y < CELL_SIZE; y++)
+                    for (int x = 0; x < CELL_SIZE; x++)
+                        pixels[pixelStart + y * imageWidth + x] = color;
+            }
+        }
+    }
+
+    /** Draws the latest complete minimap, scaled to fit inside the given area */
+    public void draw(Graphics2D g, int x, int y, int width, int height) {
+        synchronized (swapLock) {
+            double scale = Math.min(width / (double) front.getWidth(), height / (double) front.getHeight());
+            int drawWidth = (int) (front.getWidth() * scale);
+            int drawHeight = (int) (front.getHeight() * scale);
+            g.drawImage(front, x + (width - drawWidth) / 2, y, drawWidth, drawHeight, null);
+        }
+    }
+
+    /** Average time it took to render the whole minimap, in nanoseconds */
+    public double getAverageRenderNanos() {
+        long count = renders;
+        return count == 0 ? 0 : (double) renderNanos / count;
+    }
+}
@@ -0,0 +1,259 @@
+package ui;
+
+import common.ResourceManager;
+import game.Board;
+import game.BoardEvents;
+import game.Tetromino;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * The effects drawn over the board: a flash over cleared rows, their blocks shattering
+ * into falling pieces, and a trail behind hard drops. Spawned from the board's events,
+ * so the board itself knows nothing about them and never waits for them. <br>
+ * Every particle is a fading rectangle, stored in preallocated primitive arrays (one
+ * entry per particle, live ones packed at the start), so spawning, updating and drawing
+ * never allocate. When it is full, new particles are simply left out. <br>
+ * Positions and sizes are in blocks, in board coordinates (the board's top left cell is
+ * 0, 0), so the effects don't care about the gui scale. They are drawn by filling the
+ * pixels of one low resolution layer by hand, which is then drawn over the board with a
+ * single drawImage, since filling every particle through Graphics2D costs far more (and
+ * allocates on every call). Only used on the Swing UI Thread.
+ * */
+class ParticleSystem implements BoardEvents.Listener {
+    static final int CAPACITY = 2048; // A tetris on a full board spawns about 150
+    private static final int LAYER_BLOCK_PIXELS = 10; // Layer pixels per block, scaled up when drawn
+    private static final int LAYER_MARGIN = 2; // Blocks around the board, shards can fly out of it
+    private static final int FLASH_COLOR = 0; // Palette index, the other ones are a Tetromino.Type ordinal + 1
+
+    private static final int FLASH_FRAMES = 12;
+    private static final int TRAIL_FRAMES = 10;
+    private static final int SHATTER_MIN_FRAMES = 24;
+    private static final int SHATTER_EXTRA_FRAMES = 16;
+    private static final int SHARDS_PER_BLOCK = 3;
+    private static final float SHATTER_GRAVITY = 0.02f; // Blocks per frame, per frame
+
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private final float[] velocityXs = new float[CAPACITY];
+    private final float[] velocityYs = new float[CAPACITY];
+    private final float[] gravities = new float[CAPACITY];
+    private final float[] widths = new float[CAPACITY];
+    private final float[] heights = new float[CAPACITY];
+    private final short[] ages = new short[CAPACITY]; // Frames since spawning
+    private final short[] lifetimes = new short[CAPACITY]; // Frames until gone
+    private final byte[] colors = new byte[CAPACITY]; // Palette index
+    private int count;
+
+    private final int[] palette = new int[Tetromino.Type.values().length + 1]; // RGB, from the texture pack
+
+    private final BufferedImage layer;
+    private final int[] layerPixels; // ARGB, straight from the layer's raster
+
+    // The cells as they were after the last batch of events, so the cleared blocks
+    // can still be shattered with their own colors once the board removed them
+    private final Board board;
+    private final byte[] cells;
+
+    private int randomState = 0x2545F491; // xorshift, only has to look random
+
+    ParticleSystem(Board board) {
+        this.board = board;
+        cells = new byte[board.boardWidth * board.boardHeight];
+        board.copyCells(cells);
+        updatePalette();
+
+        layer = new BufferedImage(
+            (board.boardWidth + LAYER_MARGIN * 2) * LAYER_BLOCK_PIXELS,
+            (board.boardHeight + LAYER_MARGIN * 2) * LAYER_BLOCK_PIXELS,
+            BufferedImage.TYPE_INT_ARGB
+        );
+        layerPixels = ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+    }
+
+    /** Takes the colors of the current texture pack, like OpponentMinimap */
+    void updatePalette() {
+        palette[FLASH_COLOR] = 0xFFFFFF;
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            String texture = type == Tetromino.Type.Garbage ? "Border" : type.name();
+            BufferedImage tile = ResourceManager.loadBlockTexture(texture, GameWindow.BASE_BLOCK_SIZE);
+            palette[type.ordinal() + 1] = tile == null
+                ? 0x808080
+                : tile.getRGB(tile.getWidth() / 2, tile.getHeight() / 2) & 0xFFFFFF;
+        }
+    }
+
+    boolean isActive() {
+        return count > 0;
+    }
+
+
+    // Spawning
+
+    @Override
+    public void onEvents(BoardEvents events) {
+        for (int index = 0; index < events.size(); index++) {
+            switch (events.getType(index)) {
+                case PieceDropped -> spawnTrail(events, index);
+                case PieceLocked -> {
+                    // Written into the copy, its blocks might be cleared within the same batch
+                    int color = events.getPiece(index).ordinal() + 1;
+                    for (int block = 0; block < 4; block++) {
+                        int y = events.getBlockY(index, block);
+                        if (y >= 0) cells[y * board.boardWidth + events.getBlockX(index, block)] = (byte) color;
+                    }
+                }
+                case RowsCleared -> {
+                    int rows = events.getValue(index);
+                    for (int row = 0; row < board.boardHeight; row++)
+                        if ((rows >>> row & 1) != 0) spawnRowClear(row);
+                }
+            }
+        }
+
+        board.copyCells(cells);
+    }
+
+    /** A fading streak over the rows the piece fell through, one per column it covers */
+    private void spawnTrail(BoardEvents events, int index) {
+        int distance = events.getValue(index);
+        if (distance == 0) return;
+
+        int color = events.getPiece(index).ordinal() + 1;
+        for (int block = 0; block < 4; block++) {
+            int x = events.getBlockX(index, block);
+            int y = events.getBlockY(index, block);
+
+            // Only from the top block of every column, the others are in its trail already
+            boolean topOfColumn = true;
+            for (int other = 0; other < 4; other++)
+                if (events.getBlockX(index, other) == x && events.getBlockY(index, other) < y) topOfColumn = false;
+            if (!topOfColumn) continue;
+
+            spawn(x + 0.2f, y - distance, 0.6f, distance, 0, 0, 0, TRAIL_FRAMES, color);
+        }
+    }
+
+    /** A flash over the whole row, and every block of it shattering */
+    private void spawnRowClear(int row) {
+        spawn(0, row, board.boardWidth, 1, 0, 0, 0, FLASH_FRAMES, FLASH_COLOR);
+
+        for (int col = 0; col < board.boardWidth; col++) {
+            int color = cells[row * board.boardWidth + col];
+            if (color == 0) continue;
+
+            for (int shard = 0; shard < SHARDS_PER_BLOCK; shard++) {
+                float size = 0.2f + random() * 0.2f;
+                spawn(
+                    col + random() * (1 - size), row + random() * (1 - size), size, size,
+                    (random() - 0.5f) * 0.3f, -0.05f - random() * 0.25f, SHATTER_GRAVITY,
+                    SHATTER_MIN_FRAMES + (int) (random() * SHATTER_EXTRA_FRAMES), color
+                );
+            }
+        }
+    }
+
+    private void spawn(float x, float y, float width, float height, float velocityX, float velocityY,
+                       float gravity, int lifetime, int color) {
+        if (count == CAPACITY) return;
+
+        int particle = count++;
+        xs[particle] = x;
+        ys[particle] = y;
+        widths[particle] = width;
+        heights[particle] = height;
+        velocityXs[particle] = velocityX;
+        velocityYs[particle] = velocityY;
+        gravities[particle] = gravity;
+        ages[particle] = 0;
+        lifetimes[particle] = (short) lifetime;
+        colors[particle] = (byte) color;
+    }
+
+    /** Between 0 and 1 */
+    private float random() {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 17;
+        randomState ^= randomState << 5;
+        return (randomState >>> 8) / (float) (1 << 24);
+    }
+
+
+    // Updating & Drawing
+
+    /** Moves every particle `frames` frames ahead, and removes the ones that are done */
+    void update(int frames) {
+        for (int particle = 0; particle < count; ) {
+            int age = ages[particle] + frames;
+            if (age >= lifetimes[particle]) {
+                // The last particle takes its place, which keeps the live ones packed
+                remove(particle);
+                continue;
+            }
+
+            ages[particle] = (short) age;
+            for (int frame = 0; frame < frames; frame++) {
+                velocityYs[particle] += gravities[particle];
+                xs[particle] += velocityXs[particle];
+                ys[particle] += velocityYs[particle];
+            }
+            particle++;
+        }
+    }
+
+    private void remove(int particle) {
+        int last = --count;
+        xs[particle] = xs[last];
+        ys[particle] = ys[last];
+        widths[particle] = widths[last];
+        heights[particle] = heights[last];
+        velocityXs[particle] = velocityXs[last];
+        velocityYs[particle] = velocityYs[last];
+        gravities[particle] = gravities[last];
+        ages[particle] = ages[last];
+        lifetimes[particle] = lifetimes[last];
+        colors[particle] = colors[last];
+    }
+
+    /**
+     * Draws every particle in one pass, fading out over its lifetime.
+     * `xOffset` and `yOffset` are the pixel position of the board's top left cell.
+     * */
+    void draw(Graphics2D g, int xOffset, int yOffset, int blockSize) {
+        if (count == 0) return;
+
+        int layerWidth = layer.getWidth();
+        int layerHeight = layer.getHeight();
+        Arrays.fill(layerPixels, 0);
+
+        for (int particle = 0; particle < count; particle++) {
+            int alpha = (lifetimes[particle] - ages[particle]) * 255 / lifetimes[particle];
+            int argb = alpha << 24 | palette[colors[particle]];
+
+            int left = Math.max(0, layerPosition(xs[particle]));
+            int top = Math.max(0, layerPosition(ys[particle]));
+            int right = Math.min(layerWidth, Math.max(left + 1, layerPosition(xs[particle] + widths[particle])));
+            int bottom = Math.min(layerHeight, Math.max(top + 1, layerPosition(ys[particle] + heights[particle])));
+
+            // Where particles overlap the most opaque one wins, there is no blending
+            for (int y = top; y < bottom; y++) {
+                for (int pixel = y * layerWidth + left; pixel < y * layerWidth + right; pixel++)
+                    if (layerPixels[pixel] >>> 24 < alpha) layerPixels[pixel] = argb;
+            }
+        }
+
+        g.drawImage(
+            layer,
+            xOffset - LAYER_MARGIN * blockSize, yOffset - LAYER_MARGIN * blockSize,
+            layerWidth * blockSize / LAYER_BLOCK_PIXELS, layerHeight * blockSize / LAYER_BLOCK_PIXELS,
+            null
+        );
+    }
+
+    private static int layerPosition(float blocks) {
+        return (int) ((blocks + LAYER_MARGIN) * LAYER_BLOCK_PIXELS);
+    }
+}
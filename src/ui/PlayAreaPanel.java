@@ -1,14 +1,32 @@
 package ui;
 
+import common.ClipRecorder;
 import common.GraphicsUtils;
 import common.ResourceManager;
+import game.AutoRepeat;
 import game.Board;
+import game.BoardEvents;
+import game.Gravity;
+import game.HintSearch;
+import game.Replay;
+import game.SessionStats;
 import game.Tetromino;
+import game.VersusMatch;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class PlayAreaPanel extends JPanel {
     public Board board;
@@ -20,6 +38,68 @@ public class PlayAreaPanel extends JPanel {
     private int blockSize;
     private Timer timer;
 
+    // The board is updated at a fixed 60 frames per second (see gameLoop), the timer just
+    // fires often enough to catch every frame. After a long stall, skip frames instead of
+    // simulating all of them at once.
+    private static final int TIMER_DELAY_MS = 4;
+    private static final int MAX_CATCH_UP_FRAMES = 10;
+    private long loopStartNanos;
+    private long framesRun;
+
+    // Held key handling, the delays are in frames and can be changed with
+    // -Dblocks.das=<frames> and -Dblocks.arr=<frames> (0 = move all the way instantly)
+    private static final int DAS_FRAMES = Integer.getInteger("blocks.das", 10);
+    private static final int ARR_FRAMES = Integer.getInteger("blocks.arr", 2);
+    private static final int SOFT_DROP_FRAMES = 2;
+    private final AutoRepeat leftRepeat = new AutoRepeat(DAS_FRAMES, ARR_FRAMES);
+    private final AutoRepeat rightRepeat = new AutoRepeat(DAS_FRAMES, ARR_FRAMES);
+    private final AutoRepeat softDropRepeat = new AutoRepeat(SOFT_DROP_FRAMES, SOFT_DROP_FRAMES);
+    // Keys currently held down, the operating system's own key repeat is ignored
+    private final Set<Integer> heldKeys = new HashSet<>();
+
+    // Versus mode, both are null when playing alone
+    private boolean versus;
+    private VersusMatch versusMatch;
+    private OpponentMinimap minimap;
+    private boolean showStats; // Toggled with F3, shows the versus simulation and render costs
+    private SessionStats sessionStats; // Shown in the side panel, and logged when the game is over
+    private static final int STATS_PAGE_SECONDS = 5; // Of play, before the side panel stats switch pages
+    private ParticleSystem particles; // Line clear and hard drop effects, drawn over the board
+
+    // Every input of a game is recorded and saved into the replays folder once it is over, so its
+    // score can be checked (see tools.ReplayVerifier). Versus games can't be replayed, since the
+    // garbage comes from the opponents.
+    private static final String REPLAYS_FOLDER = "replays";
+    private static final int MAX_REPLAY_NAME_ATTEMPTS = 100;
+    private Replay.Recorder replayRecorder;
+
+    // Toggled with H, the best placement for the current piece is shown as a see-through piece.
+    // Searched on a background thread (see HintSearch), created the first time it is turned on.
+    private static final AlphaComposite HINT_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.45f);
+    private HintSearch hintSearch;
+    private boolean showHint;
+
+    // The last 30 seconds are always being recorded offscreen, F9 saves them as a GIF in the
+    // clips folder. Can be turned off with -Dblocks.capture=false
+    private static final boolean CAPTURE_ENABLED = !"false".equals(System.getProperty("blocks.capture"));
+    private static final int CAPTURE_INTERVAL_FRAMES = Gravity.FRAMES_PER_SECOND / ClipRecorder.FRAMES_PER_SECOND;
+    private static final String CLIPS_FOLDER = "clips";
+    private static final int CLIP_MESSAGE_FRAMES = 2 * Gravity.FRAMES_PER_SECOND;
+    private ClipRecorder clipRecorder;
+    private long lastCaptureFrame;
+    private boolean captureDirty; // Something changed since the last captured frame
+    private String clipMessage; // Shown for a moment after saving a clip
+    private long clipMessageUntilFrame;
+
+    // Layout metrics, only recomputed when the gui scale changes (see rescale)
+    private int sidePanelXOffset; // In blocks
+    private int sidePanelXPos; // In pixels
+    // On HiDPI screens the Graphics2D is already scaled (and scaled down for clips, see captureFrame),
+    // so textures are baked at the real pixel size and drawn at blockSize, which keeps them sharp
+    // at every scale.
+    private double deviceScale;
+    private int texturePixelSize;
+
     public PlayAreaPanel() {
         // Use double buffered, which uses additional memory
         // space to achieve fast, flicker-free updates
@@ -27,12 +107,20 @@ public class PlayAreaPanel extends JPanel {
         setFocusable(true); // A component needs to be focusable to use a KeyListener
         highestScore = ResourceManager.loadPreviousHighestScore();
 
+        // Texture pack switches and edits (hot reloading) show up on the next frame
+        ResourceManager.addTextureListener(() -> SwingUtilities.invokeLater(() -> {
+            if (minimap != null) minimap.updatePalette();
+            if (particles != null) particles.updatePalette();
+            repaint();
+        }));
+
         // Listen for keyboard presses when this panel is focused
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
                 Board.GameState gameState = board.getGameState();
                 int key = e.getKeyCode();
+                if (!heldKeys.add(key)) return; // Repeated by the OS, AutoRepeat handles held keys
 
                 // Whatever the gameState is, the user should
                 // be allowed to forcibly restart the game
@@ -41,6 +129,27 @@ public class PlayAreaPanel extends JPanel {
                     return;
                 }
 
+                if (key == KeyEvent.VK_F2) {
+                    cycleTexturePack();
+                    return;
+                }
+
+                if (key == KeyEvent.VK_F3) {
+                    showStats = !showStats;
+                    repaint();
+                    return;
+                }
+
+                if (key == KeyEvent.VK_F9) {
+                    saveClip();
+                    return;
+                }
+
+                if (key == KeyEvent.VK_H) {
+                    toggleHint();
+                    return;
+                }
+
                 // GameState Based Key Bindings
 
                 if (gameState == Board.GameState.Stopped &&
@@ -53,55 +162,333 @@ public class PlayAreaPanel extends JPanel {
                      gameState == Board.GameState.Paused) &&
                     (key == KeyEvent.VK_ESCAPE ||
                      key == KeyEvent.VK_F1))
-                    board.pause();
+                    perform(Replay.Action.Pause, 0);
 
                 // Movement Key Bindings
-                if (gameState == Board.GameState.Playing)
+                if (gameState == Board.GameState.Playing) {
+                    boolean action = true;
                     switch (key) {
-                        case KeyEvent.VK_UP, KeyEvent.VK_Z -> board.rotatePieceClockWise();
-                        case KeyEvent.VK_X     -> board.rotatePieceCounterClockwise();
-                        case KeyEvent.VK_C     -> board.switchWithHeldPiece();
-                        case KeyEvent.VK_DOWN  -> board.movePieceDown(true);
-                        case KeyEvent.VK_RIGHT -> board.movePieceRight();
-                        case KeyEvent.VK_LEFT  -> board.movePieceLeft();
-                        case KeyEvent.VK_SPACE -> board.dropPiece();
+                        case KeyEvent.VK_UP, KeyEvent.VK_Z -> perform(Replay.Action.RotateClockwise, 0);
+                        case KeyEvent.VK_X     -> perform(Replay.Action.RotateCounterclockwise, 0);
+                        case KeyEvent.VK_C     -> perform(Replay.Action.Hold, 0);
+                        case KeyEvent.VK_DOWN  -> {
+                            perform(Replay.Action.SoftDrop, 0);
+                            softDropRepeat.press();
+                        }
+                        case KeyEvent.VK_RIGHT -> {
+                            perform(Replay.Action.MoveRight, 0);
+                            rightRepeat.press();
+                            leftRepeat.release(); // The latest direction wins
+                        }
+                        case KeyEvent.VK_LEFT  -> {
+                            perform(Replay.Action.MoveLeft, 0);
+                            leftRepeat.press();
+                            rightRepeat.release();
+                        }
+                        case KeyEvent.VK_SPACE -> perform(Replay.Action.HardDrop, 0);
+                        default -> action = false;
                     }
+                    if (action) sessionStats.recordAction();
+                }
 
+                // Garbage only comes in while the game is running
+                if (versusMatch != null && board.getGameState() == Board.GameState.Playing)
+                    versusMatch.updateHuman();
+                updateHint();
                 repaint();
             }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+                int key = e.getKeyCode();
+                heldKeys.remove(key);
+
+                switch (key) {
+                    case KeyEvent.VK_DOWN  -> softDropRepeat.release();
+                    case KeyEvent.VK_RIGHT -> rightRepeat.release();
+                    case KeyEvent.VK_LEFT  -> leftRepeat.release();
+                }
+            }
         });
     }
 
-    /** Called after user presses the Enter key in the Menu */
-    public void start(int width, int height, double guiScale) {
-        blockSize = width / GameWindow.BLOCKS_WIDTH;
-        screenHeight = height;
-        screenWidth = width;
+    /**
+     * Called after user presses the Enter key (or V, for versus mode) in the Menu.
+     * In versus mode the width also includes the opponents area.
+     * */
+    public void start(int width, int height, double guiScale, boolean versus) {
+        rescale(width, height, guiScale);
+        long seed = ThreadLocalRandom.current().nextLong();
         board = new Board(
             GameWindow.BLOCKS_WIDTH - 6,
-            GameWindow.BLOCKS_HEIGHT - 2
+            GameWindow.BLOCKS_HEIGHT - 2,
+            seed
         );
+        sessionStats = new SessionStats(board);
+        board.addListener(sessionStats);
+        particles = new ParticleSystem(board);
+        board.addListener(particles);
+        board.addListener(this::saveGameResults);
+
+        this.versus = versus;
+        replayRecorder = versus ? null : new Replay.Recorder(board, seed);
+        if (versus) {
+            versusMatch = new VersusMatch(board, VersusMatch.DEFAULT_OPPONENTS);
+            minimap = new OpponentMinimap(versusMatch, board.boardWidth, board.boardHeight);
+            // The minimap is rendered off the Swing UI Thread after every simulation tick,
+            // painting then only has to draw the finished image. It's captured here, the
+            // field is replaced on the Swing UI Thread when the game restarts.
+            OpponentMinimap matchMinimap = minimap;
+            versusMatch.setTickListener(() -> {
+                matchMinimap.render();
+                repaint();
+            });
+            versusMatch.start();
+        }
 
-        this.guiScale = guiScale;
-        this.timer = new Timer(350, e -> {
-            // Game loop
-            if (board.getGameState() != Board.GameState.Playing)
-                return;
+        if (CAPTURE_ENABLED) prepareClipRecorder();
 
-            // Just move the current piece by one block down.
-            board.movePieceDown(false);
-            repaint(); // Call Java Swing UI repaint.
-        });
+        loopStartNanos = System.nanoTime();
+        framesRun = 0;
+        lastCaptureFrame = 0;
+        this.timer = new Timer(TIMER_DELAY_MS, e -> gameLoop());
 
         timer.start();
         repaint();
     }
 
+    /**
+     * Runs every frame that is due since the last time (usually zero or one),
+     * and only repaints if one of them changed something.
+     * */
+    private void gameLoop() {
+        long framesDue = (System.nanoTime() - loopStartNanos) / Gravity.FRAME_NANOS - framesRun;
+        if (framesDue <= 0) return;
+
+        if (framesDue > MAX_CATCH_UP_FRAMES) {
+            framesRun += framesDue - MAX_CATCH_UP_FRAMES;
+            framesDue = MAX_CATCH_UP_FRAMES;
+        }
+
+        boolean changed = false;
+        for (int frame = 0; frame < framesDue; frame++) {
+            changed |= runFrame();
+            framesRun++;
+
+            if (replayRecorder != null) {
+                replayRecorder.endFrame();
+                if (board.getGameState() == Board.GameState.Stopped) saveReplay();
+            }
+        }
+        updateHint();
+
+        // Animated at the same pace as the game, only while there is something to animate
+        if (particles.isActive()) {
+            particles.update((int) framesDue);
+            changed = true;
+        }
+
+        if (changed) {
+            repaint(); // Call Java Swing UI repaint.
+            captureDirty = true;
+        }
+
+        if (clipMessage != null && framesRun >= clipMessageUntilFrame) {
+            clipMessage = null;
+            repaint();
+        }
+
+        if (clipRecorder != null && framesRun - lastCaptureFrame >= CAPTURE_INTERVAL_FRAMES)
+            captureFrame();
+    }
+
+    /** One frame of the game: held keys, then gravity and locking */
+    private boolean runFrame() {
+        // Still ticked while paused or over, which hands out the events of the last key presses
+        if (board.getGameState() != Board.GameState.Playing)
+            return board.tick();
+
+        boolean changed = false;
+
+        // Every move owed by the held keys happens at once, even an ARR of 0 (all the way)
+        int rightMoves = rightRepeat.update(1);
+        int leftMoves = leftRepeat.update(1);
+        if (rightMoves > 0) changed |= perform(Replay.Action.Shift, Math.min(rightMoves, board.boardWidth)) > 0;
+        if (leftMoves > 0) changed |= perform(Replay.Action.Shift, -Math.min(leftMoves, board.boardWidth)) > 0;
+
+        int softDrops = Math.min(softDropRepeat.update(1), board.boardHeight);
+        for (int drop = 0; drop < softDrops && board.getGameState() == Board.GameState.Playing; drop++) {
+            perform(Replay.Action.SoftDrop, 0);
+            changed = true;
+        }
+
+        changed |= board.tick();
+        sessionStats.onFrame();
+        if (versusMatch != null && board.getGameState() == Board.GameState.Playing) versusMatch.updateHuman();
+        return changed;
+    }
+
+    /** Plays an input on the board, and records it for the replay */
+    private int perform(Replay.Action action, int argument) {
+        return replayRecorder != null
+            ? replayRecorder.perform(board, action, argument)
+            : action.apply(board, argument);
+    }
+
+    private void toggleHint() {
+        showHint = !showHint;
+        if (showHint) {
+            // The listener runs on the search thread, repaint is safe to call from any thread
+            if (hintSearch == null) hintSearch = new HintSearch(this::repaint);
+            updateHint();
+        } else {
+            hintSearch.cancel();
+        }
+        repaint();
+    }
+
+    /** Restarts the hint search on the board as it is now, after every input and frame */
+    private void updateHint() {
+        if (showHint && board.getGameState() == Board.GameState.Playing) hintSearch.update(board);
+    }
+
+    /**
+     * Saves the replay of the game that just ended into the replays folder.
+     * Names are down to the millisecond, and a counter is added if one is taken anyway
+     * (another instance of the game, or the clock set back), since save never overwrites.
+     * */
+    private void saveReplay() {
+        File folder = new File(REPLAYS_FOLDER);
+        String name = "replay-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        File file = new File(folder, name + ".bin");
+        try {
+            if (!folder.isDirectory() && !folder.mkdirs()) throw new IOException("Cannot create " + folder);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    replayRecorder.save(file.toPath(), board);
+                    break;
+                } catch (FileAlreadyExistsException e) {
+                    if (attempt == MAX_REPLAY_NAME_ATTEMPTS) throw e;
+                    file = new File(folder, name + "-" + attempt + ".bin");
+                }
+            }
+
+        } catch (IOException e) {
+            System.err.println("Cannot write to file " + file);
+            e.printStackTrace();
+        }
+        replayRecorder = null;
+    }
+
+    /**
+     * Called when the window is resized, recomputes the layout metrics once,
+     * so painting doesn't have to.
+     * */
+    public void rescale(int width, int height, double guiScale) {
+        blockSize = height / GameWindow.BLOCKS_HEIGHT;
+        screenHeight = height;
+        screenWidth = width;
+        this.guiScale = guiScale;
+
+        sidePanelXOffset = GameWindow.BLOCKS_WIDTH - 4;
+        sidePanelXPos = (int) (blockSize * (sidePanelXOffset + 0.5));
+        deviceScale = 0; // Recomputed on the next paint
+        repaint();
+    }
+
+    /**
+     * As soon as the game is over, appends its summary to the stats log,
+     * and saves the score if it beats the highest one.
+     * */
+    private void saveGameResults(BoardEvents events) {
+        for (int index = 0; index < events.size(); index++) {
+            if (events.getType(index) != BoardEvents.Type.GameStateChanged ||
+                events.getGameState(index) != Board.GameState.Stopped)
+                continue;
+
+            ResourceManager.appendStatsLogAsync(sessionStats.summarize().toLogLine());
+
+            int score = board.getScore();
+            if (score > highestScore) {
+                highestScore = score;
+                ResourceManager.saveHighestScoreAsync(score);
+                repaint(); // The game over screen may already show the old one
+            }
+        }
+    }
+
+    /**
+     * Recording keeps going across restarts (the last 30 seconds are the most interesting
+     * part of a game over), so the recorder is only replaced when the clip size changes.
+     * Clips are recorded at the base gui scale, whatever the size of the window.
+     * */
+    private void prepareClipRecorder() {
+        int clipWidth = screenWidth / blockSize * GameWindow.BASE_BLOCK_SIZE;
+        int clipHeight = screenHeight / blockSize * GameWindow.BASE_BLOCK_SIZE;
+
+        if (clipRecorder == null || clipRecorder.width != clipWidth || clipRecorder.height != clipHeight) {
+            if (clipRecorder != null) clipRecorder.close();
+            clipRecorder = new ClipRecorder(clipWidth, clipHeight);
+        }
+        captureDirty = true;
+    }
+
+    /**
+     * Renders the game into a pooled offscreen image for the clip recorder.
+     * Only the painting happens on this thread, which is about as costly as a repaint,
+     * frames that didn't change aren't even painted. Works in a headless JVM as well.
+     * */
+    private void captureFrame() {
+        lastCaptureFrame = framesRun;
+
+        BufferedImage frame = captureDirty ? clipRecorder.acquireFrame() : null;
+        if (frame == null) {
+            // Nothing changed, or the encoder is behind, either way the last frame stays longer
+            clipRecorder.repeatFrame();
+            return;
+        }
+        captureDirty = false;
+
+        Graphics2D g = frame.createGraphics();
+        g.scale(frame.getWidth() / (double) screenWidth, frame.getHeight() / (double) screenHeight);
+        paintGame(g, screenWidth, screenHeight);
+        g.dispose();
+
+        clipRecorder.submitFrame(frame);
+    }
+
+    /** Saves the last 30 seconds into the clips folder, a name that is taken gets a number added */
+    private void saveClip() {
+        if (clipRecorder == null) return;
+
+        String name = "clip-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".gif";
+        File file = new File(CLIPS_FOLDER, name);
+        clipRecorder.saveClip(file, () -> SwingUtilities.invokeLater(() -> {
+            clipMessage = "Clip saved";
+            clipMessageUntilFrame = framesRun + CLIP_MESSAGE_FRAMES;
+            repaint();
+        }));
+    }
+
+    /** Switch to the next texture pack folder within the resources folder */
+    private void cycleTexturePack() {
+        List<String> packs = ResourceManager.getTexturePackNames();
+        if (packs.isEmpty()) return;
+
+        int current = packs.indexOf(ResourceManager.getTexturePackName());
+        ResourceManager.setTexturePack(packs.get((current + 1) % packs.size()));
+    }
+
     /** Clear timer (to avoid memory leaks) and call start again */
     public void restart() {
         timer.stop();
         timer = null;
-        start(screenWidth, screenHeight, guiScale);
+        if (versusMatch != null) {
+            versusMatch.stop();
+            versusMatch = null;
+            minimap = null;
+        }
+        start(screenWidth, screenHeight, guiScale, versus);
     }
 
 
@@ -109,8 +496,16 @@ public class PlayAreaPanel extends JPanel {
 
     @Override
     public void paintComponent(Graphics graphics) {
-        Graphics2D g = (Graphics2D) graphics;
-        GraphicsUtils utils = new GraphicsUtils(g, screenWidth, screenHeight, guiScale);
+        captureDirty = true;
+        paintGame((Graphics2D) graphics, getWidth(), getHeight());
+    }
+
+    /** Paints the game into graphics of that size, the panel itself or an offscreen frame (see captureFrame) */
+    private void paintGame(Graphics2D g, int width, int height) {
+        if (board == null) return;
+
+        // Interrupt pages and the background use the whole panel
+        GraphicsUtils utils = new GraphicsUtils(g, width, height, guiScale);
 
         // Draw Background
         utils.drawBackground();
@@ -119,24 +514,20 @@ public class PlayAreaPanel extends JPanel {
         // Draw Game-Over Screen
         if (board.getGameState() == Board.GameState.Stopped) {
             int score = board.getScore();
-            if (score > highestScore) {
-                highestScore = score;
-                ResourceManager.saveHighestScore(score);
-            }
-
             utils.drawInterruptPage("GAME OVER", "Press Enter to Try Again.");
             utils.drawCenteredText(
                 "Highest Score: " + highestScore,
                 utils.PLAIN_FONT,
-                screenHeight / 2 + utils.HEADER_FONT.getSize() +
+                height / 2 + utils.HEADER_FONT.getSize() +
                 utils.PLAIN_FONT.getSize() + 15
             );
             utils.drawCenteredText(
                 "Score: " + score,
                 utils.PLAIN_FONT,
-                screenHeight / 2 + utils.HEADER_FONT.getSize() +
+                height / 2 + utils.HEADER_FONT.getSize() +
                 utils.PLAIN_FONT.getSize() * 2 + 15
             );
+            drawGameSummary(utils, height / 2 + utils.HEADER_FONT.getSize() + utils.PLAIN_FONT.getSize() * 4 + 15);
             return;
         }
 
@@ -146,6 +537,17 @@ public class PlayAreaPanel extends JPanel {
             return;
         }
 
+        // The window is rarely exactly the ratio of the game,
+        // so the game area is centered within the panel.
+        g.translate((width - screenWidth) / 2, (height - screenHeight) / 2);
+
+        // The scale only changes when the window moves to another screen, or between the window and clips
+        double currentDeviceScale = g.getTransform().getScaleX();
+        if (currentDeviceScale != deviceScale) {
+            deviceScale = currentDeviceScale;
+            texturePixelSize = (int) Math.round(blockSize * deviceScale);
+        }
+
         // Draw Foreground Blocks
         int columns = GameWindow.BLOCKS_WIDTH;
         int rows = GameWindow.BLOCKS_HEIGHT;
@@ -162,7 +564,7 @@ public class PlayAreaPanel extends JPanel {
                     col == columns - 1) {
 
                     g.drawImage(
-                        ResourceManager.loadBlockTexture("Border", blockSize),
+                        ResourceManager.loadBlockTexture("Border", texturePixelSize),
                         xPos, yPos, blockSize, blockSize, null
                     );
 
@@ -171,8 +573,12 @@ public class PlayAreaPanel extends JPanel {
                    Tetromino.Type type =
                        board.getBlockTypeAt(col - 1, row - 1);
 
+                   // Garbage rows from versus opponents look like the border
                    if (type != null) g.drawImage(
-                        ResourceManager.loadBlockTexture(type.name(), blockSize),
+                        ResourceManager.loadBlockTexture(
+                            type == Tetromino.Type.Garbage ? "Border" : type.name(),
+                            texturePixelSize
+                        ),
                         xPos, yPos, blockSize, blockSize, null
                    );
                 }
@@ -181,21 +587,24 @@ public class PlayAreaPanel extends JPanel {
 
         // Draw Current Tetromino Piece's Shadow
         drawTetromino(g, board.getCurrentPieceShadow(), "Shadow");
+        if (showHint) drawHint(g);
 
         // Draw Current Tetromino Piece
         Tetromino currentPiece = board.getCurrentPiece();
         drawTetromino(g, currentPiece, currentPiece.getType().name());
+        particles.draw(g, blockSize, blockSize, blockSize);
 
         // Draw Score & Other Text
-        int sidePanelXOffset = columns - 4;
-        int sidePanelXPos = (int) (blockSize * (sidePanelXOffset + 0.5));
-        Font sidePanelFont = new Font("Monocraft", Font.PLAIN, (int) (10 * guiScale));
+        Font sidePanelFont = utils.SIDE_PANEL_FONT;
 
         g.setFont(sidePanelFont);
         g.drawString("Score", sidePanelXPos, blockSize + sidePanelFont.getSize());
         g.drawString(Integer.toString(board.getScore()), sidePanelXPos, blockSize + sidePanelFont.getSize() * 2);
+        g.drawString("Level " + board.getLevel(), sidePanelXPos, blockSize + sidePanelFont.getSize() * 3 + 4);
         g.drawString("Hold", sidePanelXPos, blockSize + sidePanelFont.getSize() * 5);
         g.drawString("Next", sidePanelXPos, blockSize + sidePanelFont.getSize() * 15);
+        if (clipMessage != null) g.drawString(clipMessage, sidePanelXPos, screenHeight - blockSize / 2);
+        drawSessionStats(g, sidePanelFont);
 
         // Draw Held Piece
         Tetromino.Type heldPieceType = board.getHeldPieceType();
@@ -216,9 +625,93 @@ public class PlayAreaPanel extends JPanel {
             drawTetromino(g, nextPiece, nextType.name());
         }
 
+        if (minimap != null) drawVersus(g, utils);
+
         g.dispose();
     }
 
+    /** The latest hint, if it is for the current position, as a see-through piece where it would land */
+    private void drawHint(Graphics2D g) {
+        HintSearch.Hint hint = hintSearch.getHint(board);
+        if (hint == null) return;
+
+        Tetromino piece = board.getLandingPiece(hint.type(), hint.rotation(), hint.x());
+        if (piece == null) return;
+
+        Composite composite = g.getComposite();
+        g.setComposite(HINT_COMPOSITE);
+        drawTetromino(g, piece, hint.type().name());
+        g.setComposite(composite);
+    }
+
+    /** Live stats, in the side panel below the next pieces */
+    private void drawSessionStats(Graphics2D g, Font font) {
+        int lineHeight = font.getSize() + 2;
+        int yPos = blockSize * 20 + font.getSize();
+
+        // The side panel only fits about 7 characters and 5 lines, so the clears by type take turns with the rest
+        if ((int) (sessionStats.getSeconds() / STATS_PAGE_SECONDS) % 2 == 1) {
+            for (int rows = 1; rows <= 4; rows++)
+                g.drawString(rows + "x " + sessionStats.getClears(rows), sidePanelXPos, yPos + lineHeight * (rows - 1));
+            return;
+        }
+
+        g.drawString(String.format("PPS %.1f", sessionStats.getPiecesPerSecond()), sidePanelXPos, yPos);
+        g.drawString(String.format("APM %.0f", sessionStats.getActionsPerMinute()), sidePanelXPos, yPos + lineHeight);
+        g.drawString("Hgt " + sessionStats.getStackHeight(), sidePanelXPos, yPos + lineHeight * 2);
+        g.drawString("Hole " + sessionStats.getHoles(), sidePanelXPos, yPos + lineHeight * 3);
+        if (sessionStats.getDangerSeconds() > 0) g.drawString(
+            String.format("Top %.0fs", sessionStats.getDangerSeconds()), sidePanelXPos, yPos + lineHeight * 4
+        );
+    }
+
+    /** The whole game's stats, below the scores of the game over page */
+    private void drawGameSummary(GraphicsUtils utils, int yPos) {
+        Font font = utils.SIDE_PANEL_FONT;
+        int lineHeight = font.getSize() + 4;
+        SessionStats.Summary summary = sessionStats.summarize();
+
+        utils.drawCenteredText(
+            String.format("%.2f PPS   %.0f APM   %d lines", summary.piecesPerSecond(), summary.actionsPerMinute(), summary.lines()),
+            font, yPos
+        );
+        utils.drawCenteredText(
+            String.format("Singles %d Doubles %d Triples %d Tetrises %d",
+                          summary.singles(), summary.doubles(), summary.triples(), summary.tetrises()),
+            font, yPos + lineHeight
+        );
+        utils.drawCenteredText(
+            String.format("Stack %.1f  Holes %.1f  Near the top %.0fs",
+                          summary.averageStackHeight(), summary.averageHoles(), summary.dangerSeconds()),
+            font, yPos + lineHeight * 2
+        );
+    }
+
+    /** Draws the opponents grid to the right of the game area */
+    private void drawVersus(Graphics2D g, GraphicsUtils utils) {
+        int areaXPos = GameWindow.BLOCKS_WIDTH * blockSize;
+        int areaWidth = GameWindow.VERSUS_BLOCKS_WIDTH * blockSize;
+        Font font = utils.SIDE_PANEL_FONT;
+
+        g.setColor(utils.FG_TEXT_COLOR);
+        g.setFont(font);
+        g.drawString(
+            "Opponents " + versusMatch.getOpponentsAlive() + "/" + versusMatch.getOpponentCount(),
+            areaXPos, blockSize / 2 + font.getSize()
+        );
+
+        minimap.draw(g, areaXPos, blockSize, areaWidth - blockSize / 2, screenHeight - blockSize * 2);
+
+        if (showStats) g.drawString(
+            String.format(
+                "sim %.1f us/board, map %.2f ms",
+                versusMatch.getAverageSimulationNanos() / 1e3,
+                minimap.getAverageRenderNanos() / 1e6
+            ),
+            areaXPos, screenHeight - blockSize / 2
+        );
+    }
+
     /**
      * Simple utils function used in paintComponent().
      * Texture refers to the image filename (not including extension) of the texture
@@ -230,7 +723,7 @@ public class PlayAreaPanel extends JPanel {
             int yPos = (block.y + 1) * blockSize;
 
             g.drawImage(
-                ResourceManager.loadBlockTexture(texture, blockSize),
+                ResourceManager.loadBlockTexture(texture, texturePixelSize),
                 xPos, yPos, blockSize, blockSize, null
             );
         }